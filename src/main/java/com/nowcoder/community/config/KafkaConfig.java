@@ -0,0 +1,128 @@
+package com.nowcoder.community.config;
+
+import com.nowcoder.community.entity.Event;
+import com.nowcoder.community.event.EventDeserializer;
+import com.nowcoder.community.util.CommunityConstant;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+@Configuration
+public class KafkaConfig implements CommunityConstant {
+
+    //事件的传输方式，local时不启动Kafka监听
+    @Value("${community.event.transport:kafka}")
+    private String eventTransport;
+
+    //事件主题的分区数，事件按entityUserId分区，同一个用户的事件在分区内有序
+    @Value("${community.event.partitions:4}")
+    private int partitions;
+
+    @Value("${community.event.replicas:1}")
+    private short replicas;
+
+    //消费线程数，每个线程处理分配给它的分区，等于分区数时每个分区一个线程，超过分区数的线程空闲
+    @Value("${community.event.consumer-concurrency:4}")
+    private int concurrency;
+
+    //增量索引的消费组：elasticsearch的索引所有节点共用，各节点在同一个消费组中分担分区
+    //lucene的索引在每个节点本地，每个节点需要收到全部事件，消费组加上节点名(默认主机名)，重启后从上次的offset继续
+    @Bean
+    public String searchIndexGroupId(@Value("${community.search.backend}") String backend,
+                                     @Value("${community.search.index.group-id:community-search-indexer}") String groupId,
+                                     @Value("${community.search.index.node-id:}") String nodeId) throws UnknownHostException {
+        if (!"lucene".equals(backend)) {
+            return groupId;
+        }
+        return groupId + "-" + (nodeId.isEmpty() ? InetAddress.getLocalHost().getHostName() : nodeId);
+    }
+
+    //通用的KafkaTemplate，按配置文件中的序列化方式发送
+    @Bean
+    @Primary
+    public KafkaTemplate<Object, Object> kafkaTemplate(ProducerFactory<Object, Object> producerFactory) {
+        return new KafkaTemplate<>(producerFactory);
+    }
+
+    //发布事件：value是EventCodec编码后的二进制(发件箱中保存的就是编码后的内容)
+    @Bean
+    public KafkaTemplate<String, byte[]> eventKafkaTemplate(KafkaProperties properties) {
+        return new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(
+                properties.buildProducerProperties(), new StringSerializer(), new ByteArraySerializer()));
+    }
+
+    //消费事件：二进制和旧的JSON格式都能解析，无法解析的记录value为null，由消费者转发到死信主题
+    @Bean
+    public ConsumerFactory<String, Event> eventConsumerFactory(KafkaProperties properties) {
+        return new DefaultKafkaConsumerFactory<>(properties.buildConsumerProperties(),
+                new StringDeserializer(), new ErrorHandlingDeserializer<>(new EventDeserializer()));
+    }
+
+    //批量消费：一次poll的全部记录交给监听方法，方法返回后再提交offset
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> batchListenerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer, ConsumerFactory<String, Event> eventConsumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, (ConsumerFactory) eventConsumerFactory);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.BATCH);
+        factory.setAutoStartup("kafka".equals(eventTransport));
+        factory.setConcurrency(concurrency);
+        return factory;
+    }
+
+    //消费延迟重试主题：逐条处理，value保持编码后的二进制，处理完或转发到下一级后手动确认
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> retryListenerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer, KafkaProperties properties) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, (ConsumerFactory) new DefaultKafkaConsumerFactory<>(
+                properties.buildConsumerProperties(), new StringDeserializer(), new ByteArrayDeserializer()));
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.setAutoStartup("kafka".equals(eventTransport));
+        return factory;
+    }
+
+    //启动时创建事件主题，已存在且分区数较少时增加分区(增加分区后同一个key可能换到新分区)
+    @Bean
+    @ConditionalOnProperty(name = "community.event.transport", havingValue = "kafka", matchIfMissing = true)
+    public KafkaAdmin.NewTopics eventTopics() {
+        return new KafkaAdmin.NewTopics(
+                eventTopic(TOPIC_COMMENT),
+                eventTopic(TOPIC_LIKE),
+                eventTopic(TOPIC_FOLLOW),
+                eventTopic(TOPIC_PUBLISH),
+                eventTopic(TOPIC_SCORE),
+                eventTopic(TOPIC_RETRY_1),
+                eventTopic(TOPIC_RETRY_2),
+                eventTopic(TOPIC_RETRY_3),
+                eventTopic(TOPIC_DEAD_LETTER));
+    }
+
+    private NewTopic eventTopic(String name) {
+        return TopicBuilder.name(name).partitions(partitions).replicas(replicas).build();
+    }
+
+}
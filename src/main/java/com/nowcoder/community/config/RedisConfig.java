@@ -1,16 +1,25 @@
 package com.nowcoder.community.config;
 
+import com.nowcoder.community.util.RedisKeyUtil;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.RedisSerializer;
 
 @Configuration
 public class RedisConfig {
 
+    //是否按Redis Cluster的slot规则生成key
+    @Value("${community.redis.cluster-mode:false}")
+    private boolean clusterMode;
+
     @Bean
     public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory factory){
+        RedisKeyUtil.setClusterMode(clusterMode);
+
         RedisTemplate<String, Object> template = new RedisTemplate<>();
         template.setConnectionFactory(factory);
         //设置key的序列化方式
@@ -29,4 +38,12 @@ public class RedisConfig {
         return template;
     }
 
+    //Redis pub/sub的监听容器
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory factory){
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        return container;
+    }
+
 }
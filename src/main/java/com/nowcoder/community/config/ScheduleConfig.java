@@ -0,0 +1,11 @@
+package com.nowcoder.community.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+//开启定时任务
+@Configuration
+@EnableScheduling
+public class ScheduleConfig {
+
+}
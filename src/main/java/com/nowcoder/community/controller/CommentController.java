@@ -1,11 +1,9 @@
 package com.nowcoder.community.controller;
 
 import com.nowcoder.community.entity.Comment;
-import com.nowcoder.community.entity.DiscussPost;
 import com.nowcoder.community.entity.Event;
 import com.nowcoder.community.event.EventProducer;
 import com.nowcoder.community.service.CommentService;
-import com.nowcoder.community.service.DiscussPostService;
 import com.nowcoder.community.util.CommunityConstant;
 import com.nowcoder.community.util.HostHolder;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -29,34 +27,16 @@ public class CommentController implements CommunityConstant {
     @Autowired
     private EventProducer eventProducer;
 
-    @Autowired
-    private DiscussPostService discussPostService;
-
     @RequestMapping(path = "/add/{discussPostId}", method = RequestMethod.POST)
     public String addComment(@PathVariable("discussPostId") int discussPostId, Comment comment) {
         comment.setUserId(hostHolder.getUser().getId());
         comment.setStatus(0);
         comment.setCreateTime(new Date());
-        commentService.addComment(comment);
-
-        //触发评论事件
-        Event event = new Event()
-                .setTopic(TOPIC_COMMENT)
-                .setUserId(hostHolder.getUser().getId())
-                .setEntityType(comment.getEntityType())
-                .setEntityId(comment.getEntityId())
-                .setData("postId", discussPostId);
-        if (comment.getEntityType() == ENTITY_TYPE_POST) {
-            DiscussPost target = discussPostService.findDiscussPostById(comment.getEntityId());
-            event.setEntityUserId(target.getUserId());
-        } else if (comment.getEntityType() == ENTITY_TYPE_COMMENT) {
-            Comment target = commentService.findCommentById(comment.getEntityId());
-            event.setEntityUserId(target.getUserId());
-        }
-        eventProducer.fireEvent(event);
+        //评论事件由CommentService在同一个事务中写入发件箱
+        commentService.addComment(comment, discussPostId);
 
 //        if(comment.getEntityType() == ENTITY_TYPE_POST){
-//             event = new Event()
+//             Event event = new Event()
 //                     .setTopic(TOPIC_PUBLISH)
 //                     .setUserId(comment.getUserId())
 //                     .setEntityType(ENTITY_TYPE_POST)
@@ -1,14 +1,27 @@
 package com.nowcoder.community.controller;
 
+import com.nowcoder.community.annotation.LoginRequired;
+import com.nowcoder.community.entity.User;
+import com.nowcoder.community.event.EventMetrics;
+import com.nowcoder.community.event.EventOutboxRelay;
+import com.nowcoder.community.event.EventRetryPublisher;
+import com.nowcoder.community.event.SearchIndexMetrics;
+import com.nowcoder.community.event.SearchIndexer;
 import com.nowcoder.community.service.DataService;
+import com.nowcoder.community.util.CommunityUtil;
+import com.nowcoder.community.util.HostHolder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 @Controller
 public class DataController {
@@ -17,6 +30,24 @@ public class DataController {
     @Autowired
     private DataService dataService;
 
+    @Autowired
+    private EventMetrics eventMetrics;
+
+    @Autowired
+    private EventOutboxRelay eventOutboxRelay;
+
+    @Autowired
+    private EventRetryPublisher eventRetryPublisher;
+
+    @Autowired
+    private SearchIndexer searchIndexer;
+
+    @Autowired
+    private SearchIndexMetrics searchIndexMetrics;
+
+    @Autowired
+    private HostHolder hostHolder;
+
     // 统计页面
     @RequestMapping(path = "/data", method = {RequestMethod.GET, RequestMethod.POST})
     public String getDataPage() {
@@ -45,4 +76,47 @@ public class DataController {
         return "forward:/data";
     }
 
+    // 事件发布统计：各主题的发布数、失败数、确认耗时，以及发件箱积压
+    @RequestMapping(path = "/data/events", method = RequestMethod.GET)
+    @ResponseBody
+    public String getEventStats() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("publish", eventMetrics.snapshot());
+        map.put("outbox", eventOutboxRelay.findBacklog());
+        return CommunityUtil.getJSONString(0, null, map);
+    }
+
+    // 尚未重放的死信事件数量
+    @RequestMapping(path = "/data/events/dlt", method = RequestMethod.GET)
+    @ResponseBody
+    public String getDeadLetters() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("pending", eventRetryPublisher.countDeadLetters());
+        return CommunityUtil.getJSONString(0, null, map);
+    }
+
+    // 把死信事件批量重新发布到原来的主题，修复处理失败的原因后使用，只有管理员可以重放
+    @LoginRequired
+    @RequestMapping(path = "/data/events/dlt/replay", method = RequestMethod.POST)
+    @ResponseBody
+    public String replayDeadLetters(@RequestParam(name = "limit", defaultValue = "1000") int limit) {
+        User user = hostHolder.getUser();
+        if (user.getType() != 1) {
+            return CommunityUtil.getJSONString(403, "只有管理员可以重放死信事件");
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("replayed", eventRetryPublisher.replayDeadLetters(Math.min(Math.max(limit, 1), 10000)));
+        return CommunityUtil.getJSONString(0, null, map);
+    }
+
+    // 增量索引统计：每批合并后的帖子数、写入耗时、索引延迟，以及等待写入的帖子数
+    @RequestMapping(path = "/data/search/index", method = RequestMethod.GET)
+    @ResponseBody
+    public String getSearchIndexStats() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("index", searchIndexMetrics.snapshot());
+        map.put("pending", searchIndexer.getPendingCount());
+        return CommunityUtil.getJSONString(0, null, map);
+    }
+
 }
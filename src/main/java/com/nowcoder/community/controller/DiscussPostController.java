@@ -57,13 +57,7 @@ public class DiscussPostController implements CommunityConstant {
         post.setCreateTime(new Date());
         discussPostService.addDiscussPost(post);
 
-//        //触发发帖事件
-//        Event event = new Event()
-//                .setTopic(TOPIC_PUBLISH)
-//                .setUserId(user.getId())
-//                .setEntityType(ENTITY_TYPE_POST)
-//                .setEntityId(post.getId());
-//        eventProducer.fireEvent(event);
+        //发帖事件由DiscussPostService在同一个事务中写入发件箱
 
         return CommunityUtil.getJSONString(0, "发布成功！");
     }
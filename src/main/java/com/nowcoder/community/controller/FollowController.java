@@ -81,12 +81,7 @@ public class FollowController implements CommunityConstant {
         page.setRows((int) followService.findFolloweeCount(userId, ENTITY_TYPE_USER));
 
         List<Map<String, Object>> userList = followService.findFollowees(userId, page.getOffset(), page.getLimit());
-        if(userList != null){
-            for(Map<String , Object> map : userList) {
-                User u = (User) map.get("user");
-                map.put("hasFollowed", hasFollowed(u.getId()));
-            }
-        }
+        markFollowStatus(userList);
         model.addAttribute("users", userList);
 
         return "/site/followee";
@@ -105,22 +100,25 @@ public class FollowController implements CommunityConstant {
         page.setRows((int) followService.findFollowerCount(ENTITY_TYPE_USER, userId));
 
         List<Map<String, Object>> userList = followService.findFollowers(userId, page.getOffset(), page.getLimit());
-        if(userList != null){
-            for(Map<String , Object> map : userList) {
-                User u = (User) map.get("user");
-                map.put("hasFollowed", hasFollowed(u.getId()));
-            }
-        }
+        markFollowStatus(userList);
         model.addAttribute("users", userList);
 
         return "/site/follower";
     }
 
-    private boolean hasFollowed(int userId){
+    //一次往返为整页用户标记关注状态
+    private void markFollowStatus(List<Map<String, Object>> userList){
+        if(userList == null){
+            return;
+        }
         if(hostHolder.getUser() == null){
-            return false;
+            for(Map<String , Object> map : userList) {
+                map.put("hasFollowed", false);
+                map.put("followsYou", false);
+            }
+            return;
         }
-        return followService.hasFollowed(hostHolder.getUser().getId(),ENTITY_TYPE_USER, userId);
+        followService.markFollowStatus(hostHolder.getUser().getId(), userList);
     }
 
 }
@@ -1,22 +1,29 @@
 package com.nowcoder.community.controller;
 
-import com.alibaba.fastjson.JSONObject;
+import com.nowcoder.community.annotation.LoginRequired;
+import com.nowcoder.community.entity.BroadcastNotice;
 import com.nowcoder.community.entity.Message;
+import com.nowcoder.community.entity.NoticePayload;
 import com.nowcoder.community.entity.Page;
 import com.nowcoder.community.entity.User;
+import com.nowcoder.community.service.BroadcastService;
 import com.nowcoder.community.service.MessageService;
+import com.nowcoder.community.service.PushService;
+import com.nowcoder.community.service.ReadReceiptService;
 import com.nowcoder.community.service.UserService;
 import com.nowcoder.community.util.CommunityConstant;
 import com.nowcoder.community.util.CommunityUtil;
 import com.nowcoder.community.util.HostHolder;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
-import org.springframework.web.util.HtmlUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.*;
 
@@ -32,6 +39,18 @@ public class MessageController implements CommunityConstant {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private PushService pushService;
+
+    @Autowired
+    private ReadReceiptService readReceiptService;
+
+    @Autowired
+    private BroadcastService broadcastService;
+
+    //私信和通知详情每页显示的数量
+    private static final int DETAIL_PAGE_LIMIT = 5;
+
     //私信列表
     @RequestMapping(path = "/letter/list", method = RequestMethod.GET)
     private String getLetterList(Model model, Page page){
@@ -44,16 +63,24 @@ public class MessageController implements CommunityConstant {
         List<Message> conversationList = messageService.findConversations(
                 user.getId(), page.getOffset(), page.getLimit());
         List<Map<String, Object>> conversations = new ArrayList<>();
-        if(conversationList != null){
+        if(conversationList != null && !conversationList.isEmpty()){
+            //会话的消息数、未读数和目标用户都批量查询
+            List<String> conversationIds = new ArrayList<>();
+            List<Integer> targetIds = new ArrayList<>();
             for(Message message : conversationList){
+                conversationIds.add(message.getConversationId());
+                targetIds.add(user.getId() == message.getFromId() ? message.getToId() : message.getFromId());
+            }
+            Map<String, Map<String, Object>> counts = messageService.findLetterCounts(user.getId(), conversationIds);
+            Map<Integer, User> targets = userService.findUsersByIds(targetIds);
+
+            for(int i = 0; i < conversationList.size(); i++){
+                Message message = conversationList.get(i);
                 Map<String, Object> map = new HashMap<>();
                 map.put("conversation", message);
-                //此会话包含几条消息
-                map.put("letterCount", messageService.findLetterCount(message.getConversationId()));
-                //未读消息数量
-                map.put("unreadCount", messageService.findLetterUnreadCount(user.getId(), message.getConversationId()));
-                int targetId = user.getId() == message.getFromId() ? message.getToId() : message.getFromId();
-                map.put("target", userService.findUserById(targetId));
+                //此会话包含几条消息、未读消息数量
+                map.putAll(counts.get(message.getConversationId()));
+                map.put("target", targets.get(targetIds.get(i)));
 
                 conversations.add(map);
             }
@@ -69,35 +96,34 @@ public class MessageController implements CommunityConstant {
         return "/site/letter";
     }
 
-    //会话信息
+    //会话信息，游标分页：beforeId为上一页最后一条私信的id
     @RequestMapping(path = "/letter/detail/{conversationId}", method = RequestMethod.GET)
-    public String getLetterDetail(@PathVariable("conversationId") String conversationId, Page page, Model model){
-        //分页信息
-        page.setLimit(5);
-        page.setPath("/letter/detail/" + conversationId);
-        page.setRows(messageService.findLetterCount(conversationId));
-
-        //私信列表
-        List<Message> letterList = messageService.findLetters(conversationId, page.getOffset(), page.getLimit());
+    public String getLetterDetail(@PathVariable("conversationId") String conversationId,
+                                  @RequestParam(name = "beforeId", required = false) Integer beforeId, Model model){
+        String path = "/letter/detail/" + conversationId;
+        //多查一条，判断是否还有更早的私信
+        List<Message> letterList = messageService.findLettersBefore(conversationId, beforeId, DETAIL_PAGE_LIMIT + 1);
+        boolean hasMore = letterList.size() > DETAIL_PAGE_LIMIT;
+        if(hasMore){
+            letterList = new ArrayList<>(letterList.subList(0, DETAIL_PAGE_LIMIT));
+        }
         List<Map<String, Object>> letters = new ArrayList<>();
-        if(letterList != null){
-            for(Message message : letterList){
-                Map<String, Object> map = new HashMap<>();
-                map.put("letter", message);
-                map.put("fromUser", userService.findUserById(message.getFromId()));
-                letters.add(map);
-            }
+        for(Message message : letterList){
+            Map<String, Object> map = new HashMap<>();
+            map.put("letter", message);
+            map.put("fromUser", userService.findUserById(message.getFromId()));
+            letters.add(map);
         }
         model.addAttribute("letters", letters);
+        model.addAttribute("firstUrl", path);
+        model.addAttribute("nextUrl", hasMore
+                ? path + "?beforeId=" + letterList.get(letterList.size() - 1).getId() : null);
 
         //私信目标
         model.addAttribute("target", getLetterTarget(conversationId));
 
-        //将未读设置为已读
-        List<Integer> ids = getLetterIds(letterList);
-        if(!ids.isEmpty()){
-            messageService.readMessage(ids);
-        }
+        //将未读设置为已读(异步批量写入)
+        readReceiptService.read(hostHolder.getUser().getId(), letterList);
 
         return "/site/letter-detail";
     }
@@ -114,19 +140,6 @@ public class MessageController implements CommunityConstant {
         }
     }
 
-    private List<Integer> getLetterIds(List<Message> letterList){
-        List<Integer> ids = new ArrayList<>();
-
-        if(letterList != null){
-            for(Message message : letterList){
-                if(hostHolder.getUser().getId() == message.getToId() && message.getStatus() == 0){
-                    ids.add(message.getId());
-                }
-            }
-        }
-        return ids;
-    }
-
     @RequestMapping(path = "/letter/send", method = RequestMethod.POST)
     @ResponseBody
     public String sendLetter(String toName, String content){
@@ -154,74 +167,12 @@ public class MessageController implements CommunityConstant {
     public String getNoticeList(Model model){
         User user = hostHolder.getUser();
 
-        //查询评论类通知
-        Message message = messageService.findLatestNotice(user.getId(), TOPIC_COMMENT);
-        if(message != null){
-            Map<String, Object> messageVO = new HashMap<>();
-            messageVO.put("message", message);
-
-            String content = HtmlUtils.htmlUnescape(message.getContent());
-            Map<String, Object> data = JSONObject.parseObject(content, HashMap.class);
-
-            messageVO.put("user", userService.findUserById((Integer) data.get("userId")));
-            messageVO.put("entityType", data.get("entityType"));
-            messageVO.put("entityId", data.get("entityId"));
-            messageVO.put("postId", data.get("postId"));
-
-            int count = messageService.findNoticeCount(user.getId(), TOPIC_COMMENT);
-            messageVO.put("count", count);
-
-            int unread = messageService.findNoticeUnreadCount(user.getId(), TOPIC_COMMENT);
-            messageVO.put("unread", unread);
-
-            model.addAttribute("commentNotice", messageVO);
-        }
-
-        //查询点赞类通知
-        message = messageService.findLatestNotice(user.getId(), TOPIC_LIKE);
-        if(message != null){
-            Map<String, Object> messageVO = new HashMap<>();
-            messageVO.put("message", message);
-
-            String content = HtmlUtils.htmlUnescape(message.getContent());
-            Map<String, Object> data = JSONObject.parseObject(content, HashMap.class);
-
-            messageVO.put("user", userService.findUserById((Integer) data.get("userId")));
-            messageVO.put("entityType", data.get("entityType"));
-            messageVO.put("entityId", data.get("entityId"));
-            messageVO.put("postId", data.get("postId"));
-
-            int count = messageService.findNoticeCount(user.getId(), TOPIC_LIKE);
-            messageVO.put("count", count);
-
-            int unread = messageService.findNoticeUnreadCount(user.getId(), TOPIC_LIKE);
-            messageVO.put("unread", unread);
-
-            model.addAttribute("likeNotice", messageVO);
-        }
-
-        //查询关注类通知
-        message = messageService.findLatestNotice(user.getId(), TOPIC_FOLLOW);
-        if(message != null){
-            Map<String, Object> messageVO = new HashMap<>();
-            messageVO.put("message", message);
-
-            String content = HtmlUtils.htmlUnescape(message.getContent());
-            Map<String, Object> data = JSONObject.parseObject(content, HashMap.class);
-
-            messageVO.put("user", userService.findUserById((Integer) data.get("userId")));
-            messageVO.put("entityType", data.get("entityType"));
-            messageVO.put("entityId", data.get("entityId"));
-
-
-            int count = messageService.findNoticeCount(user.getId(), TOPIC_FOLLOW);
-            messageVO.put("count", count);
-
-            int unread = messageService.findNoticeUnreadCount(user.getId(), TOPIC_FOLLOW);
-            messageVO.put("unread", unread);
-
-            model.addAttribute("followNotice", messageVO);
-        }
+        //评论、点赞、关注类通知一起查询
+        Map<String, Map<String, Object>> overview = messageService.findNoticeOverview(user.getId());
+        model.addAttribute("commentNotice", overview.get(TOPIC_COMMENT));
+        model.addAttribute("likeNotice", overview.get(TOPIC_LIKE));
+        model.addAttribute("followNotice", overview.get(TOPIC_FOLLOW));
+        model.addAttribute("broadcastNotice", overview.get(TOPIC_BROADCAST));
 
         //查询未读消息数量
         int letterUnreadCount = messageService.findLetterUnreadCount(user.getId(), null);
@@ -234,43 +185,103 @@ public class MessageController implements CommunityConstant {
         return "/site/notice";
     }
 
+    //通知详情，游标分页：before/beforeId为上一页最后一条通知的时间(毫秒)和id
     @RequestMapping(path = "/notice/detail/{topic}", method = RequestMethod.GET)
-    public String getNoticeDetail(@PathVariable("topic") String topic, Page page, Model model){
+    public String getNoticeDetail(@PathVariable("topic") String topic,
+                                  @RequestParam(name = "before", required = false) Long before,
+                                  @RequestParam(name = "beforeId", required = false) Integer beforeId, Model model){
         User user = hostHolder.getUser();
+        String path = "/notice/detail/" + topic;
+        if(TOPIC_BROADCAST.equals(topic)){
+            return getBroadcastDetail(beforeId, model);
+        }
 
-        page.setLimit(5);
-        page.setPath("/notice/detail/" + topic);
-        page.setRows(messageService.findNoticeCount(user.getId(), topic));
-
-        List<Message> noticeList = messageService.findNotices(user.getId(), topic, page.getOffset(), page.getLimit());
+        Date beforeTime = before == null || beforeId == null ? null : new Date(before);
+        List<Message> noticeList = messageService.findNoticesBefore(
+                user.getId(), topic, beforeTime, beforeId, DETAIL_PAGE_LIMIT + 1);
+        boolean hasMore = noticeList.size() > DETAIL_PAGE_LIMIT;
+        if(hasMore){
+            noticeList = new ArrayList<>(noticeList.subList(0, DETAIL_PAGE_LIMIT));
+        }
         List<Map<String, Object>> noticeVoList = new ArrayList<>();
-        if(noticeList != null){
-            for(Message notice : noticeList){
-                Map<String, Object> map = new HashMap<>();
-                //通知
-                map.put("notice", notice);
-                //内容
-                String content = HtmlUtils.htmlUnescape(notice.getContent());
-                Map<String, Object> data = JSONObject.parseObject(content, HashMap.class);
-                map.put("user", userService.findUserById((Integer) data.get("userId")));
-                map.put("entityType", data.get("entityType"));
-                map.put("entityId", data.get("entityId"));
-                map.put("postId", data.get("postId"));
-                //通知作者
-                map.put("fromUser", userService.findUserById(notice.getFromId()));
-
-                noticeVoList.add(map);
-            }
+        for(Message notice : noticeList){
+            Map<String, Object> map = new HashMap<>();
+            //通知
+            map.put("notice", notice);
+            //内容
+            NoticePayload payload = NoticePayload.of(notice);
+            map.put("user", userService.findUserById(payload.getActorId()));
+            map.put("entityType", payload.getEntityType());
+            map.put("entityId", payload.getEntityId());
+            map.put("postId", payload.getPostId());
+            map.put("actorCount", notice.getActorCount());
+            //通知作者
+            map.put("fromUser", userService.findUserById(notice.getFromId()));
+
+            noticeVoList.add(map);
         }
         model.addAttribute("notices",noticeVoList);
+        model.addAttribute("firstUrl", path);
+        if(hasMore){
+            Message last = noticeList.get(noticeList.size() - 1);
+            model.addAttribute("nextUrl", path + "?before=" + last.getCreateTime().getTime() + "&beforeId=" + last.getId());
+        }
+
+        //设置已读(异步批量写入)
+        readReceiptService.read(user.getId(), noticeList);
 
-        //设置已读
-        List<Integer> ids = getLetterIds(noticeList);
-        if(!ids.isEmpty()){
-            messageService.readMessage(ids);
+        return "/site/notice-detail";
+    }
+
+    //全站公告列表，按公告id游标分页；打开第一页时把所有公告标记为已读
+    private String getBroadcastDetail(Integer beforeId, Model model){
+        String path = "/notice/detail/" + TOPIC_BROADCAST;
+        List<BroadcastNotice> broadcastList = broadcastService.findBroadcastsBefore(beforeId, DETAIL_PAGE_LIMIT + 1);
+        boolean hasMore = broadcastList.size() > DETAIL_PAGE_LIMIT;
+        if(hasMore){
+            broadcastList = new ArrayList<>(broadcastList.subList(0, DETAIL_PAGE_LIMIT));
+        }
+        User systemUser = userService.findUserById(SYSTEM_USER_ID);
+        List<Map<String, Object>> noticeVoList = new ArrayList<>();
+        for(BroadcastNotice notice : broadcastList){
+            Map<String, Object> map = new HashMap<>();
+            map.put("notice", notice);
+            map.put("fromUser", systemUser);
+            noticeVoList.add(map);
         }
+        model.addAttribute("notices", noticeVoList);
+        model.addAttribute("firstUrl", path);
+        model.addAttribute("nextUrl", hasMore
+                ? path + "?beforeId=" + broadcastList.get(broadcastList.size() - 1).getId() : null);
 
+        if(beforeId == null){
+            broadcastService.markRead(hostHolder.getUser().getId());
+        }
         return "/site/notice-detail";
     }
 
+    //发布全站公告，只有管理员可以发布
+    @LoginRequired
+    @RequestMapping(path = "/notice/broadcast", method = RequestMethod.POST)
+    @ResponseBody
+    public String sendBroadcast(String content){
+        User user = hostHolder.getUser();
+        if(user.getType() != 1){
+            return CommunityUtil.getJSONString(403, "只有管理员可以发布公告");
+        }
+        if(content == null || content.trim().isEmpty()){
+            return CommunityUtil.getJSONString(1, "公告内容不能为空");
+        }
+        broadcastService.send(user.getId(), content);
+        return CommunityUtil.getJSONString(0);
+    }
+
+    //推送未读数变化和新通知(SSE)
+    @LoginRequired
+    @RequestMapping(path = "/message/stream", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public SseEmitter stream(){
+        return pushService.subscribe(hostHolder.getUser().getId());
+    }
+
 }
@@ -160,6 +160,16 @@ public class UserController implements CommunityConstant {
             hasFollowed = followService.hasFollowed(hostHolder.getUser().getId(), ENTITY_TYPE_USER, userId);
         }
         model.addAttribute("hasFollowed", hasFollowed);
+        //我关注的人中也关注了TA的人
+        if(hostHolder.getUser() != null && hostHolder.getUser().getId() != userId){
+            int viewerId = hostHolder.getUser().getId();
+            model.addAttribute("mutualFollowerCount", followService.findMutualFollowerCount(viewerId, userId));
+            model.addAttribute("mutualFollowers", followService.findMutualFollowers(viewerId, userId, 3));
+        }
+        //可能认识的人（只给本人看）
+        if(hostHolder.getUser() != null && hostHolder.getUser().getId() == userId){
+            model.addAttribute("recommendUsers", followService.findRecommendUsers(userId, 5));
+        }
 
         return "/site/profile";
     }
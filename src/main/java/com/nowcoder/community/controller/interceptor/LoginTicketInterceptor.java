@@ -7,7 +7,7 @@ import com.nowcoder.community.util.CookieUtil;
 import com.nowcoder.community.util.HostHolder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 import org.springframework.web.servlet.ModelAndView;
 
 import javax.servlet.http.HttpServletRequest;
@@ -15,7 +15,7 @@ import javax.servlet.http.HttpServletResponse;
 import java.util.Date;
 
 @Component
-public class LoginTicketInterceptor implements HandlerInterceptor {
+public class LoginTicketInterceptor implements AsyncHandlerInterceptor {
 
     @Autowired
     private UserService userService;
@@ -60,4 +60,10 @@ public class LoginTicketInterceptor implements HandlerInterceptor {
         hostHolder.clear();
        // SecurityContextHolder.clearContext();
     }
+
+    //异步请求(如SSE)开始后不会调用afterCompletion，需要在这里清理当前线程持有的用户
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        hostHolder.clear();
+    }
 }
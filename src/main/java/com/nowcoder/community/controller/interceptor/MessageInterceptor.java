@@ -24,9 +24,8 @@ public class MessageInterceptor implements HandlerInterceptor {
     public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler, ModelAndView modelAndView)throws Exception{
         User user = hostHolder.getUser();
         if(user != null && modelAndView != null){
-            int letterUnreadCount = messageService.findLetterUnreadCount(user.getId(), null);
-            int noticeUnreadCount = messageService.findNoticeUnreadCount(user.getId(), null);
-            modelAndView.addObject("allUnreadCount", letterUnreadCount + noticeUnreadCount);
+            //一次HGETALL取出全部未读计数，不再查询MySQL
+            modelAndView.addObject("allUnreadCount", messageService.findAllUnreadCount(user.getId()));
         }
     }
 
@@ -0,0 +1,20 @@
+package com.nowcoder.community.dao;
+
+import com.nowcoder.community.entity.BroadcastNotice;
+import org.apache.ibatis.annotations.Mapper;
+
+import java.util.List;
+
+@Mapper
+public interface BroadcastNoticeMapper {
+
+    //新增公告
+    int insertBroadcastNotice(BroadcastNotice notice);
+
+    //游标分页查询公告，beforeId为null时从最新一条开始
+    List<BroadcastNotice> selectBroadcastNoticesBefore(Integer beforeId, int limit);
+
+    //查询最新的limit条公告的id，用于重建Redis中的公告列表
+    List<Integer> selectLatestBroadcastNoticeIds(int limit);
+
+}
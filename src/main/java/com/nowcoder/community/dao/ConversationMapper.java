@@ -0,0 +1,30 @@
+package com.nowcoder.community.dao;
+
+import com.nowcoder.community.entity.Message;
+import org.apache.ibatis.annotations.Mapper;
+
+import java.util.List;
+import java.util.Map;
+
+@Mapper
+public interface ConversationMapper {
+
+    //查询当前用户的会话列表，每个会话返回最新的一条私信
+    List<Message> selectConversations(int userId, int offset, int limit);
+
+    //查询当前用户的会话数量
+    int selectConversationCount(int userId);
+
+    //批量查询当前用户在多个会话中的未读数，返回conversationId, unreadCount
+    List<Map<String, Object>> selectUnreadCounts(int userId, List<String> conversationIds);
+
+    //新私信写入后更新会话，不存在则新建；unreadDelta为该参与者增加的未读数
+    int upsertConversation(int userId, int peerId, String conversationId, int lastMessageId, int unreadDelta);
+
+    //私信被读后减少未读数
+    int decreaseUnreadCount(int userId, String conversationId, int count);
+
+    //重新计算id在[fromId, toId)之间的私信所在的会话，可以重复执行
+    int backfillConversations(int fromId, int toId);
+
+}
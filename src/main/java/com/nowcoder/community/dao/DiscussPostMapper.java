@@ -3,6 +3,7 @@ package com.nowcoder.community.dao;
 import com.nowcoder.community.entity.DiscussPost;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -23,6 +24,18 @@ public interface DiscussPostMapper {
 
     int updateCommentCount(int id, int commentCount);
 
+    int updateScore(int id, double score);
+
+    //增量索引：按id批量查询，包括已删除的帖子(从索引中删除)
+    List<DiscussPost> selectDiscussPostsByIds(List<Integer> ids);
+
+    //重建索引：流式读取id在[fromId, toId)内未删除的帖子，需要在事务中遍历
+    Cursor<DiscussPost> selectDiscussPostsByIdRange(int fromId, int toId);
+
+    int selectMinId();
+
+    int selectMaxId();
+
 
 
 
@@ -0,0 +1,25 @@
+package com.nowcoder.community.dao;
+
+import com.nowcoder.community.entity.OutboxEvent;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+import java.util.Map;
+
+@Mapper
+public interface EventOutboxMapper {
+
+    //写入发件箱
+    int insertOutboxEvent(OutboxEvent event);
+
+    //按id顺序查询id大于afterId的limit个未发布事件
+    List<OutboxEvent> selectOutboxEvents(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    //统计未发布的事件，返回pending(数量), oldest(最早的写入时间)
+    Map<String, Object> selectOutboxStats();
+
+    //删除已发布的事件
+    int deleteOutboxEvents(List<Long> ids);
+
+}
@@ -0,0 +1,28 @@
+package com.nowcoder.community.dao;
+
+import com.nowcoder.community.entity.Message;
+import org.apache.ibatis.annotations.Mapper;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+@Mapper
+public interface MessageArchiveMapper {
+
+    //把id在[fromId, toId)之间、早于cutoff的已读私信和已读通知复制到归档表
+    int archiveMessages(int fromId, int toId, Date cutoff);
+
+    //删除id在[fromId, toId)之间已经复制到归档表的消息
+    int deleteArchivedMessages(int fromId, int toId);
+
+    //游标分页查询归档的私信
+    List<Message> selectLettersBefore(String conversationId, Integer beforeId, int limit);
+
+    //游标分页查询归档的通知
+    List<Message> selectNoticesBefore(int userId, String topic, Date beforeTime, Integer beforeId, int limit);
+
+    //批量查询多个会话归档的私信数量，返回conversationId, letterCount
+    List<Map<String, Object>> selectLetterCounts(List<String> conversationIds);
+
+}
@@ -3,7 +3,10 @@ package com.nowcoder.community.dao;
 import com.nowcoder.community.entity.Message;
 import org.apache.ibatis.annotations.Mapper;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 @Mapper
 public interface MessageMapper {
@@ -17,18 +20,57 @@ public interface MessageMapper {
     //查询某个会话所包含的私信列表
     List<Message> selectLetters(String conversationId, int offset, int limit);
 
+    //游标分页查询某个会话的私信，beforeId为null时从最新一条开始
+    List<Message> selectLettersBefore(String conversationId, Integer beforeId, int limit);
+
     //查询某个会话所包含的私信数量
     int selectLetterCount(String conversationId);
 
+    //批量查询多个会话的私信数量，返回conversationId, letterCount
+    List<Map<String, Object>> selectLetterCounts(List<String> conversationIds);
+
     //查询未读私信的数量
     int selectLetterUnreadCount(int userId, String conversationId);
 
     //新增消息，私信
     int insertMessage(Message message);
 
+    //批量新增通知，聚合key已存在时合并到已有的聚合通知中
+    int insertNotices(List<Message> notices, int maxRecentActors);
+
     //修改消息的状态
     int updateStatus(List<Integer> ids, int status);
 
+    //统计ids中未读消息按(接收者,会话/主题)分组的数量，返回userId, conversationId, notice(1为通知), count
+    List<Map<String, Object>> selectUnreadGroups(List<Integer> ids);
+
+    //统计某用户每个会话/主题的未读数量，返回conversationId, notice(1为通知), count
+    List<Map<String, Object>> selectUnreadCounts(int userId);
+
+    //查询最大的消息id
+    int selectMaxId();
+
+    //查询最小的消息id
+    int selectMinId();
+
+    //查询id在[fromId, toId)之间最早的消息时间，区间内没有消息时返回null
+    Date selectMinCreateTime(int fromId, int toId);
+
+    //查询某用户各主题下最新通知的id、通知数量和未读数量，返回topic, latestId, count, unread
+    List<Map<String, Object>> selectNoticeSummaries(int userId, List<String> topics);
+
+    //根据id批量查询消息
+    List<Message> selectMessagesByIds(List<Integer> ids);
+
+    //根据聚合key查询聚合通知并加行锁(for update)，事务提交前其他事务不能合并这个通知
+    Message selectNoticeByAggregateKey(String aggregateKey);
+
+    //根据聚合key批量查询聚合通知并加行锁(for update)
+    List<Message> selectNoticesByAggregateKeys(Collection<String> aggregateKeys);
+
+    //把一次新的触发合并到聚合通知中，并重新标记为未读
+    int updateAggregateNotice(int id, int actorId, Date createTime, int maxRecentActors);
+
     //查询某主题下最新的通知
     Message selectLatestNotice(int userId, String topic);
 
@@ -41,4 +83,7 @@ public interface MessageMapper {
     //查询某个主题所包含的通知列表
     List<Message> selectNotices(int userId, String topic, int offset, int limit);
 
+    //游标分页查询某个主题的通知，按(create_time, id)倒序，beforeTime为null时从最新一条开始
+    List<Message> selectNoticesBefore(int userId, String topic, Date beforeTime, Integer beforeId, int limit);
+
 }
@@ -3,10 +3,15 @@ package com.nowcoder.community.dao;
 import com.nowcoder.community.entity.User;
 import org.apache.ibatis.annotations.Mapper;
 
+import java.util.Collection;
+import java.util.List;
+
 @Mapper
 public interface UserMapper {
     User selectById(int id);
 
+    List<User> selectByIds(Collection<Integer> ids);
+
     User selectByName(String username);
 
     User selectByEmail(String email);
@@ -18,4 +23,7 @@ public interface UserMapper {
     int updateHeader(int id, String headerUrl);
 
     int updatePassword(int id, String password);
+
+    //查询最大的用户id，用于按id区间遍历用户
+    int selectMaxId();
 }
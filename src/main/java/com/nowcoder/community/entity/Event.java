@@ -5,6 +5,8 @@ import java.util.Map;
 
 public class Event {
 
+    //全局唯一的事件id，由EventProducer分配，消费者据此去重
+    private String id;
     private String topic;
     private int userId;
     private int entityType;
@@ -12,6 +14,15 @@ public class Event {
     private int entityUserId;
     private Map<String, Object> data = new HashMap<>();
 
+    public String getId() {
+        return id;
+    }
+
+    public Event setId(String id) {
+        this.id = id;
+        return this;
+    }
+
     public String getTopic() {
         return topic;
     }
@@ -11,6 +11,15 @@ public class Message {
     private String content;
     private int status;
     private Date createTime;
+    //通知的结构化内容，私信为0
+    private int actorId;
+    private int entityType;
+    private int entityId;
+    private int postId;
+    //聚合通知：触发用户数、最近的触发用户(逗号分隔)、聚合key
+    private int actorCount = 1;
+    private String recentActors;
+    private String aggregateKey;
 
     public int getId() {
         return id;
@@ -68,6 +77,62 @@ public class Message {
         this.createTime = createTime;
     }
 
+    public int getActorId() {
+        return actorId;
+    }
+
+    public void setActorId(int actorId) {
+        this.actorId = actorId;
+    }
+
+    public int getEntityType() {
+        return entityType;
+    }
+
+    public void setEntityType(int entityType) {
+        this.entityType = entityType;
+    }
+
+    public int getEntityId() {
+        return entityId;
+    }
+
+    public void setEntityId(int entityId) {
+        this.entityId = entityId;
+    }
+
+    public int getPostId() {
+        return postId;
+    }
+
+    public void setPostId(int postId) {
+        this.postId = postId;
+    }
+
+    public int getActorCount() {
+        return actorCount;
+    }
+
+    public void setActorCount(int actorCount) {
+        this.actorCount = actorCount;
+    }
+
+    public String getRecentActors() {
+        return recentActors;
+    }
+
+    public void setRecentActors(String recentActors) {
+        this.recentActors = recentActors;
+    }
+
+    public String getAggregateKey() {
+        return aggregateKey;
+    }
+
+    public void setAggregateKey(String aggregateKey) {
+        this.aggregateKey = aggregateKey;
+    }
+
     @Override
     public String toString() {
         return "Message{" +
@@ -78,6 +143,13 @@ public class Message {
                 ", content='" + content + '\'' +
                 ", status=" + status +
                 ", createTime=" + createTime +
+                ", actorId=" + actorId +
+                ", entityType=" + entityType +
+                ", entityId=" + entityId +
+                ", postId=" + postId +
+                ", actorCount=" + actorCount +
+                ", recentActors='" + recentActors + '\'' +
+                ", aggregateKey='" + aggregateKey + '\'' +
                 '}';
     }
 }
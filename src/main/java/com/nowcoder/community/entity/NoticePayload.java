@@ -0,0 +1,64 @@
+package com.nowcoder.community.entity;
+
+import com.alibaba.fastjson.JSONObject;
+import org.springframework.web.util.HtmlUtils;
+
+//通知的内容：谁(actorId)对哪个实体做了什么，postId为实体所在的帖子
+public class NoticePayload {
+
+    private final int actorId;
+    private final int entityType;
+    private final int entityId;
+    private final int postId;
+
+    public NoticePayload(int actorId, int entityType, int entityId, int postId) {
+        this.actorId = actorId;
+        this.entityType = entityType;
+        this.entityId = entityId;
+        this.postId = postId;
+    }
+
+    //从通知中读取内容，直接取结构化字段；迁移前的旧通知才解析content中的JSON
+    public static NoticePayload of(Message notice) {
+        if (notice.getActorId() != 0) {
+            return new NoticePayload(notice.getActorId(), notice.getEntityType(), notice.getEntityId(), notice.getPostId());
+        }
+        return fromLegacyContent(notice.getContent());
+    }
+
+    //旧格式：HTML转义后的JSON
+    public static NoticePayload fromLegacyContent(String content) {
+        JSONObject data = JSONObject.parseObject(HtmlUtils.htmlUnescape(content));
+        if (data == null) {
+            return new NoticePayload(0, 0, 0, 0);
+        }
+        return new NoticePayload(data.getIntValue("userId"), data.getIntValue("entityType"),
+                data.getIntValue("entityId"), data.getIntValue("postId"));
+    }
+
+    public int getActorId() {
+        return actorId;
+    }
+
+    public int getEntityType() {
+        return entityType;
+    }
+
+    public int getEntityId() {
+        return entityId;
+    }
+
+    public int getPostId() {
+        return postId;
+    }
+
+    @Override
+    public String toString() {
+        return "NoticePayload{" +
+                "actorId=" + actorId +
+                ", entityType=" + entityType +
+                ", entityId=" + entityId +
+                ", postId=" + postId +
+                '}';
+    }
+}
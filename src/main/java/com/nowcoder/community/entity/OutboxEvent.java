@@ -0,0 +1,66 @@
+package com.nowcoder.community.entity;
+
+import java.util.Date;
+
+//发件箱中等待发布的事件
+public class OutboxEvent {
+
+    private long id;
+    private String topic;
+    //分区键，为null时由Kafka轮流分配分区
+    private String eventKey;
+    //EventCodec编码后的事件
+    private byte[] payload;
+    private Date createTime;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public String getEventKey() {
+        return eventKey;
+    }
+
+    public void setEventKey(String eventKey) {
+        this.eventKey = eventKey;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public void setPayload(byte[] payload) {
+        this.payload = payload;
+    }
+
+    public Date getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(Date createTime) {
+        this.createTime = createTime;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboxEvent{" +
+                "id=" + id +
+                ", topic='" + topic + '\'' +
+                ", eventKey='" + eventKey + '\'' +
+                ", payload=" + (payload == null ? 0 : payload.length) + " bytes" +
+                ", createTime=" + createTime +
+                '}';
+    }
+}
@@ -0,0 +1,352 @@
+package com.nowcoder.community.event;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.nowcoder.community.entity.Event;
+import com.nowcoder.community.util.CommunityConstant;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/*
+    Event的二进制编码，替代fastjson，格式(版本2)：
+    版本号(1字节) | 主题编号(varint，0表示后面跟主题字符串) | 事件id | userId | entityType | entityId | entityUserId
+    | data条数(varint) | 每条: key(字符串) 类型(1字节) 值
+    事件id：1字节类型，0没有id，1为32位十六进制的UUID(16字节)，2为字符串
+    整数都用zigzag + varint编码，字符串为varint长度 + UTF-8
+    版本1没有事件id；解码时第一个字节是'{'则按旧的JSON格式解析，兼容升级前写入的消息
+    旧的消费者读不到新版本(JSON消费者读不到二进制，版本1的消费者读不到版本2)，升级时先升级全部消费者，
+    再修改生产者的community.event.codec-version(EventProducer)；新的消费者把读不到的事件转发到死信主题
+ */
+public final class EventCodec implements CommunityConstant {
+
+    //升级二进制编码之前的fastjson格式，只用于滚动升级期间写入
+    public static final byte VERSION_JSON = 0;
+    public static final byte VERSION_1 = 1;
+    public static final byte VERSION_2 = 2;
+
+    //主题编号，只能在末尾追加，不能修改已有的顺序
+    private static final String[] TOPICS = {null, TOPIC_COMMENT, TOPIC_LIKE, TOPIC_FOLLOW, TOPIC_PUBLISH, TOPIC_SCORE};
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_STRING = 3;
+    private static final byte TYPE_BOOLEAN = 4;
+    private static final byte TYPE_DOUBLE = 5;
+    //其他类型用JSON字符串保存
+    private static final byte TYPE_JSON = 6;
+
+    private static final byte ID_NONE = 0;
+    private static final byte ID_UUID = 1;
+    private static final byte ID_STRING = 2;
+
+    private EventCodec() {
+    }
+
+    public static byte[] encode(Event event) {
+        return encode(event, VERSION_2);
+    }
+
+    //按指定的版本编码，还有旧版本的消费者时使用
+    public static byte[] encode(Event event, byte version) {
+        if (version == VERSION_JSON) {
+            return JSON.toJSONString(event).getBytes(StandardCharsets.UTF_8);
+        }
+        if (version != VERSION_1 && version != VERSION_2) {
+            throw new IllegalArgumentException("不支持的事件编码版本: " + version);
+        }
+        Writer writer = new Writer(32 + event.getData().size() * 16);
+        writer.writeByte(version);
+        int topicId = topicId(event.getTopic());
+        writer.writeVarInt(topicId);
+        if (topicId == 0) {
+            writer.writeString(event.getTopic());
+        }
+        if (version >= VERSION_2) {
+            writeId(writer, event.getId());
+        }
+        writer.writeVarInt(zigzag(event.getUserId()));
+        writer.writeVarInt(zigzag(event.getEntityType()));
+        writer.writeVarInt(zigzag(event.getEntityId()));
+        writer.writeVarInt(zigzag(event.getEntityUserId()));
+        writer.writeVarInt(event.getData().size());
+        for (Map.Entry<String, Object> entry : event.getData().entrySet()) {
+            writer.writeString(entry.getKey());
+            writeValue(writer, entry.getValue());
+        }
+        return writer.toByteArray();
+    }
+
+    public static Event decode(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] == '{') {
+            return JSONObject.parseObject(new String(bytes, StandardCharsets.UTF_8), Event.class);
+        }
+        if (bytes[0] != VERSION_1 && bytes[0] != VERSION_2) {
+            throw new IllegalArgumentException("不支持的事件编码版本: " + bytes[0]);
+        }
+        Reader reader = new Reader(bytes, 1);
+        Event event = new Event();
+        int topicId = reader.readVarInt();
+        if (topicId == 0) {
+            event.setTopic(reader.readString());
+        } else if (topicId < TOPICS.length) {
+            event.setTopic(TOPICS[topicId]);
+        } else {
+            throw new IllegalArgumentException("未知的主题编号: " + topicId);
+        }
+        if (bytes[0] >= VERSION_2) {
+            event.setId(readId(reader));
+        }
+        event.setUserId(unzigzag(reader.readVarInt()));
+        event.setEntityType(unzigzag(reader.readVarInt()));
+        event.setEntityId(unzigzag(reader.readVarInt()));
+        event.setEntityUserId(unzigzag(reader.readVarInt()));
+        int size = reader.readVarInt();
+        for (int i = 0; i < size; i++) {
+            String key = reader.readString();
+            event.setData(key, readValue(reader));
+        }
+        return event;
+    }
+
+    private static int topicId(String topic) {
+        for (int i = 1; i < TOPICS.length; i++) {
+            if (TOPICS[i].equals(topic)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private static void writeId(Writer writer, String id) {
+        if (id == null) {
+            writer.writeByte(ID_NONE);
+        } else if (isUuid(id)) {
+            writer.writeByte(ID_UUID);
+            writer.writeLong(Long.parseUnsignedLong(id.substring(0, 16), 16));
+            writer.writeLong(Long.parseUnsignedLong(id.substring(16), 16));
+        } else {
+            writer.writeByte(ID_STRING);
+            writer.writeString(id);
+        }
+    }
+
+    private static String readId(Reader reader) {
+        byte type = reader.readByte();
+        switch (type) {
+            case ID_NONE:
+                return null;
+            case ID_UUID:
+                return hex(reader.readLong()) + hex(reader.readLong());
+            case ID_STRING:
+                return reader.readString();
+            default:
+                throw new IllegalArgumentException("未知的事件id类型: " + type);
+        }
+    }
+
+    //CommunityUtil.generateUUID生成的32位小写十六进制
+    private static boolean isUuid(String id) {
+        if (id.length() != 32) {
+            return false;
+        }
+        for (int i = 0; i < 32; i++) {
+            char c = id.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String hex(long n) {
+        String s = Long.toHexString(n);
+        return s.length() == 16 ? s : "0000000000000000".substring(s.length()) + s;
+    }
+
+    private static void writeValue(Writer writer, Object value) {
+        if (value == null) {
+            writer.writeByte(TYPE_NULL);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writer.writeByte(TYPE_INT);
+            writer.writeVarInt(zigzag(((Number) value).intValue()));
+        } else if (value instanceof Long) {
+            writer.writeByte(TYPE_LONG);
+            writer.writeVarLong(zigzag((Long) value));
+        } else if (value instanceof String) {
+            writer.writeByte(TYPE_STRING);
+            writer.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            writer.writeByte(TYPE_BOOLEAN);
+            writer.writeByte((Boolean) value ? 1 : 0);
+        } else if (value instanceof Double || value instanceof Float) {
+            writer.writeByte(TYPE_DOUBLE);
+            writer.writeLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else {
+            writer.writeByte(TYPE_JSON);
+            writer.writeString(JSON.toJSONString(value));
+        }
+    }
+
+    private static Object readValue(Reader reader) {
+        byte type = reader.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_INT:
+                return unzigzag(reader.readVarInt());
+            case TYPE_LONG:
+                return unzigzag(reader.readVarLong());
+            case TYPE_STRING:
+                return reader.readString();
+            case TYPE_BOOLEAN:
+                return reader.readByte() != 0;
+            case TYPE_DOUBLE:
+                return Double.longBitsToDouble(reader.readLong());
+            case TYPE_JSON:
+                return JSON.parse(reader.readString());
+            default:
+                throw new IllegalArgumentException("未知的数据类型: " + type);
+        }
+    }
+
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static final class Writer {
+
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeVarInt(int n) {
+            ensure(5);
+            while ((n & ~0x7F) != 0) {
+                buf[pos++] = (byte) ((n & 0x7F) | 0x80);
+                n >>>= 7;
+            }
+            buf[pos++] = (byte) n;
+        }
+
+        void writeVarLong(long n) {
+            ensure(10);
+            while ((n & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((n & 0x7F) | 0x80);
+                n >>>= 7;
+            }
+            buf[pos++] = (byte) n;
+        }
+
+        void writeLong(long n) {
+            ensure(8);
+            for (int i = 56; i >= 0; i -= 8) {
+                buf[pos++] = (byte) (n >>> i);
+            }
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+    }
+
+    private static final class Reader {
+
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        byte readByte() {
+            if (pos >= buf.length) {
+                throw new IllegalArgumentException("事件数据不完整");
+            }
+            return buf[pos++];
+        }
+
+        int readVarInt() {
+            int n = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = readByte();
+                n |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return n;
+                }
+            }
+            throw new IllegalArgumentException("varint过长");
+        }
+
+        long readVarLong() {
+            long n = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                n |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return n;
+                }
+            }
+            throw new IllegalArgumentException("varlong过长");
+        }
+
+        long readLong() {
+            long n = 0;
+            for (int i = 0; i < 8; i++) {
+                n = (n << 8) | (readByte() & 0xFF);
+            }
+            return n;
+        }
+
+        String readString() {
+            int length = readVarInt();
+            if (length < 0 || pos + length > buf.length) {
+                throw new IllegalArgumentException("事件数据不完整");
+            }
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+    }
+
+}
@@ -1,89 +1,98 @@
-//package com.nowcoder.community.event;
-//
-//import com.alibaba.fastjson.JSONObject;
-//import com.nowcoder.community.entity.DiscussPost;
-//import com.nowcoder.community.entity.Event;
-//import com.nowcoder.community.entity.Message;
-//import com.nowcoder.community.service.DiscussPostService;
-////import com.nowcoder.community.service.ElasticsearchService;
-//import com.nowcoder.community.service.MessageService;
-//import com.nowcoder.community.util.CommunityConstant;
-//import org.apache.kafka.clients.consumer.ConsumerRecord;
-//import org.slf4j.Logger;
-//import org.slf4j.LoggerFactory;
-//import org.springframework.beans.factory.annotation.Autowired;
-//import org.springframework.kafka.annotation.KafkaListener;
-//import org.springframework.stereotype.Component;
-//
-//import java.util.Date;
-//import java.util.HashMap;
-//import java.util.Map;
-//
-//@Component
-//public class EventConsumer implements CommunityConstant {
-//
-//    private static final Logger logger = LoggerFactory.getLogger(EventConsumer.class);
-//
-//    @Autowired
-//    private MessageService messageService;
-//
-//    @Autowired
-//    private DiscussPostService discussPostService;
-//
-//   // @Autowired
-//   // private ElasticsearchService elasticsearchService;
-//
-//    @KafkaListener(topics = {TOPIC_COMMENT, TOPIC_FOLLOW, TOPIC_LIKE})
-//    public void handleCommentMessage(ConsumerRecord record) {
-//        if(record == null || record.value() == null){
-//            logger.error("消息内容为空!");
-//            return;
-//        }
-//            //JSON字符串解析为对象
-//        Event event = JSONObject.parseObject(record.value().toString(), Event.class);
-//        if(event == null){
-//             logger.error("消息格式错误！");
-//             return;
-//        }
-//
-//        //发送站内通知
-//        Message message = new Message();
-//        message.setFromId(SYSTEM_USER_ID);
-//        message.setToId(event.getEntityUserId());
-//        message.setConversationId(event.getTopic());
-//        message.setCreateTime(new Date());
-//
-//        Map<String, Object> content = new HashMap<>();
-//        content.put("userId", event.getUserId());
-//        content.put("entityType", event.getEntityType());
-//        content.put("entityId", event.getEntityId());
-//
-//        if(!event.getData().isEmpty()){
-//            for(Map.Entry<String, Object> entry : event.getData().entrySet()){
-//                content.put(entry.getKey(), entry.getValue());
-//            }
-//        }
-//
-//        message.setContent(JSONObject.toJSONString(content));
-//        messageService.addMessage(message);
-//    }
-//
-//    //消费发帖事件
-//    @KafkaListener(topics = {TOPIC_PUBLISH})
-//    public void handlePublicshMessage(ConsumerRecord record) {
-//        if (record == null || record.value() == null) {
-//            logger.error("消息内容为空!");
-//            return;
-//        }
-//        //JSON字符串解析为对象
-//        Event event = JSONObject.parseObject(record.value().toString(), Event.class);
-//        if (event == null) {
-//            logger.error("消息格式错误！");
-//            return;
-//        }
-//
-//        DiscussPost post = discussPostService.findDiscussPostById(event.getEntityId());
-//    //    elasticsearchService.saveDiscussPost(post);
-//    }
-//
-//}
+package com.nowcoder.community.event;
+
+import com.nowcoder.community.entity.Event;
+import com.nowcoder.community.entity.Message;
+import com.nowcoder.community.service.MessageService;
+import com.nowcoder.community.util.CommunityConstant;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@Component
+public class EventConsumer implements EventHandler, CommunityConstant {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventConsumer.class);
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private EventRetryPublisher eventRetryPublisher;
+
+    @Autowired
+    private EventDeduplicator eventDeduplicator;
+
+    private static final String[] NOTICE_TOPICS = {TOPIC_COMMENT, TOPIC_FOLLOW, TOPIC_LIKE};
+
+    private static final String DEDUP_SCOPE = "notice";
+
+    //评论、点赞、关注事件批量生成通知：一次poll的记录用一条insert写入，写入成功后才提交offset
+    //整批失败时逐条重新处理，仍然失败的事件转发到延迟重试主题，不阻塞当前分区
+    //使用进程内事件总线时不启动这个监听，事件直接交给handleEvents
+    @KafkaListener(topics = {TOPIC_COMMENT, TOPIC_FOLLOW, TOPIC_LIKE}, containerFactory = "batchListenerFactory")
+    public void handleNoticeEvents(List<ConsumerRecord<String, Event>> records) {
+        List<ConsumerRecord<String, Event>> valid = new ArrayList<>(records.size());
+        List<Event> events = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, Event> record : records) {
+            if (eventRetryPublisher.deadLetterIfUndecodable(record, EventRetryConsumer.handlerName(this))) {
+                continue;
+            }
+            Event event = parseEvent(record);
+            if (event != null) {
+                valid.add(record);
+                events.add(event);
+            }
+        }
+        try {
+            handleEvents(events);
+        } catch (Exception e) {
+            logger.error("批量生成通知失败，逐条处理: " + e.getMessage());
+            for (ConsumerRecord<String, Event> record : valid) {
+                try {
+                    handleEvents(Collections.singletonList(record.value()));
+                } catch (Exception ex) {
+                    eventRetryPublisher.retry(record, EventCodec.encode(record.value()),
+                            EventRetryConsumer.handlerName(this), ex);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String[] getTopics() {
+        return NOTICE_TOPICS;
+    }
+
+    //去重窗口内处理过的事件不再生成通知；通知写入提交后才记入窗口，写入失败或进程退出时事件会被重新处理
+    @Override
+    public void handleEvents(List<Event> events) {
+        List<Event> fresh = eventDeduplicator.filterSeen(DEDUP_SCOPE, events);
+        if (fresh.isEmpty()) {
+            return;
+        }
+        List<Message> notices = new ArrayList<>(fresh.size());
+        for (Event event : fresh) {
+            notices.add(messageService.createNotice(event));
+        }
+        messageService.addNotices(notices);
+        eventDeduplicator.markSeen(DEDUP_SCOPE, fresh);
+    }
+
+    //事件由EventDeserializer解析，格式错误时为null，跳过
+    public static Event parseEvent(ConsumerRecord<String, Event> record) {
+        if (record == null || record.value() == null) {
+            logger.error("消息内容为空: " + (record == null ? null
+                    : record.topic() + "-" + record.partition() + "@" + record.offset()));
+            return null;
+        }
+        return record.value();
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.nowcoder.community.event;
+
+import com.nowcoder.community.entity.Event;
+import com.nowcoder.community.util.RedisKeyUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+//事件去重：每个处理器在Redis中保存去重窗口内处理成功的事件id(zset，score为处理时间)
+//处理前用一次脚本清理窗口外的id并查询这一批事件是否处理过；处理成功(已提交)后再记入窗口
+//进程在处理和记录之间退出时，重新投递的事件会再处理一次(至少一次)，不会被误当作重复而丢失
+//重启、再平衡、发件箱重复发布、死信重放带来的重复事件都在窗口内被过滤
+@Component
+public class EventDeduplicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventDeduplicator.class);
+
+    //返回每个id是否已在窗口内(1/0)
+    private static final RedisScript<List> CHECK_SCRIPT = new DefaultRedisScript<>(
+            "local now = tonumber(ARGV[1]) " +
+            "local window = tonumber(ARGV[2]) " +
+            "redis.call('zremrangebyscore', KEYS[1], '-inf', now - window) " +
+            "local result = {} " +
+            "for i = 3, #ARGV do result[i - 2] = redis.call('zscore', KEYS[1], ARGV[i]) and 1 or 0 end " +
+            "return result", List.class);
+
+    //事件id按字符串保存，不经过RedisTemplate的JSON序列化，记录时同样用脚本
+    private static final RedisScript<Long> MARK_SCRIPT = new DefaultRedisScript<>(
+            "local now = tonumber(ARGV[1]) " +
+            "local window = tonumber(ARGV[2]) " +
+            "for i = 3, #ARGV do redis.call('zadd', KEYS[1], 'NX', now, ARGV[i]) end " +
+            "redis.call('pexpire', KEYS[1], window) " +
+            "return #ARGV - 2", Long.class);
+
+    @Autowired
+    private RedisTemplate redisTemplate;
+
+    //去重窗口，应大于重复事件可能出现的最长间隔(重启、再平衡、重试)
+    @Value("${community.event.dedup-window-millis:3600000}")
+    private long windowMillis;
+
+    //返回窗口内没有处理过的事件，同一批中重复的事件只保留第一个；没有id的事件(升级前发布的)不去重
+    //只查询不记录，处理成功后调用markSeen；Redis不可用时不去重，宁可重复也不丢通知
+    public List<Event> filterSeen(String handler, List<Event> events) {
+        List<Event> candidates = new ArrayList<>(events.size());
+        Set<String> ids = new HashSet<>();
+        for (Event event : events) {
+            if (event.getId() == null || ids.add(event.getId())) {
+                candidates.add(event);
+            }
+        }
+        if (ids.isEmpty()) {
+            return candidates;
+        }
+
+        List<Object> marks;
+        try {
+            marks = (List<Object>) redisTemplate.execute(CHECK_SCRIPT, RedisSerializer.string(), RedisSerializer.string(),
+                    Collections.singletonList(RedisKeyUtil.getEventDedupKey(handler)), args(ids));
+        } catch (Exception e) {
+            logger.error("事件去重失败，跳过去重: " + e.getMessage());
+            return candidates;
+        }
+        if (marks == null) {
+            return candidates;
+        }
+
+        Set<String> seen = new HashSet<>();
+        int i = 0;
+        for (String id : ids) {
+            if (((Number) marks.get(i++)).intValue() == 1) {
+                seen.add(id);
+            }
+        }
+        List<Event> fresh = new ArrayList<>(candidates.size());
+        for (Event event : candidates) {
+            if (event.getId() == null || !seen.contains(event.getId())) {
+                fresh.add(event);
+            }
+        }
+        if (fresh.size() < events.size()) {
+            logger.info("过滤重复事件" + (events.size() - fresh.size()) + "个");
+        }
+        return fresh;
+    }
+
+    //处理成功后把事件记入窗口；记录失败只会让之后的重复事件再处理一次
+    public void markSeen(String handler, List<Event> events) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (Event event : events) {
+            if (event.getId() != null) {
+                ids.add(event.getId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        try {
+            redisTemplate.execute(MARK_SCRIPT, RedisSerializer.string(), RedisSerializer.string(),
+                    Collections.singletonList(RedisKeyUtil.getEventDedupKey(handler)), args(ids));
+        } catch (Exception e) {
+            logger.error("记录已处理事件失败: " + e.getMessage());
+        }
+    }
+
+    private Object[] args(Set<String> ids) {
+        List<String> args = new ArrayList<>(ids.size() + 2);
+        args.add(String.valueOf(System.currentTimeMillis()));
+        args.add(String.valueOf(windowMillis));
+        args.addAll(ids);
+        return args.toArray();
+    }
+
+}
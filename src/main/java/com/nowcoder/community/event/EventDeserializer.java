@@ -0,0 +1,20 @@
+package com.nowcoder.community.event;
+
+import com.nowcoder.community.entity.Event;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+//Kafka的value反序列化：二进制或旧的JSON -> Event，格式错误时抛出异常
+//消费时由ErrorHandlingDeserializer包装(KafkaConfig)，异常和原始内容放在消息头中，由消费者转发到死信主题
+public class EventDeserializer implements Deserializer<Event> {
+
+    @Override
+    public Event deserialize(String topic, byte[] data) {
+        try {
+            return EventCodec.decode(data);
+        } catch (Exception e) {
+            throw new SerializationException("事件格式错误: " + topic + ", " + e.getMessage(), e);
+        }
+    }
+
+}
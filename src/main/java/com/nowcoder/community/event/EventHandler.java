@@ -0,0 +1,15 @@
+package com.nowcoder.community.event;
+
+import com.nowcoder.community.entity.Event;
+
+import java.util.List;
+
+//事件处理器：Kafka监听和进程内事件总线都把订阅主题的一批事件按发布顺序交给它
+//抛出异常时这一批事件会被重新投递，处理需要是幂等的
+public interface EventHandler {
+
+    String[] getTopics();
+
+    void handleEvents(List<Event> events);
+
+}
@@ -0,0 +1,127 @@
+package com.nowcoder.community.event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+//事件发布的统计：各主题的成功/失败/拒绝数、Kafka确认耗时，以及事件从写入发件箱到被Kafka确认的延迟
+//累计值一直增长，速率按最近一个统计周期计算
+@Component
+public class EventMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventMetrics.class);
+
+    private final Map<String, TopicStats> topics = new ConcurrentHashMap<>();
+
+    //发件箱延迟(毫秒)，周期内的最大值和总和
+    private final AtomicLong maxLagMillis = new AtomicLong();
+    private final LongAdder lagMillis = new LongAdder();
+    private final LongAdder lagCount = new LongAdder();
+
+    //最近一个统计周期的结果
+    private volatile Map<String, Object> lastPeriod = new HashMap<>();
+    private volatile long periodStart = System.currentTimeMillis();
+
+    public void recordSuccess(String topic, long latencyNanos) {
+        TopicStats stats = stats(topic);
+        stats.sent.increment();
+        stats.latencyNanos.add(latencyNanos);
+        stats.maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+
+    public void recordFailure(String topic) {
+        stats(topic).failed.increment();
+    }
+
+    //超过在途上限被拒绝的事件，仍留在发件箱中等待下次发布
+    public void recordRejected(String topic) {
+        stats(topic).rejected.increment();
+    }
+
+    public void recordLag(long millis) {
+        lagMillis.add(millis);
+        lagCount.increment();
+        maxLagMillis.accumulateAndGet(millis, Math::max);
+    }
+
+    //每分钟计算一次速率并写日志
+    @Scheduled(fixedRateString = "${community.event.metrics-period-millis:60000}")
+    public void report() {
+        long now = System.currentTimeMillis();
+        double seconds = Math.max(now - periodStart, 1) / 1000.0;
+        periodStart = now;
+
+        Map<String, Object> period = new HashMap<>();
+        for (Map.Entry<String, TopicStats> entry : topics.entrySet()) {
+            TopicStats stats = entry.getValue();
+            long sent = stats.sent.sum();
+            long failed = stats.failed.sum();
+            long rejected = stats.rejected.sum();
+            long latency = stats.latencyNanos.sum();
+            long sentDelta = sent - stats.lastSent;
+            Map<String, Object> map = new HashMap<>();
+            map.put("sentPerSecond", sentDelta / seconds);
+            map.put("failed", failed - stats.lastFailed);
+            map.put("rejected", rejected - stats.lastRejected);
+            map.put("avgLatencyMillis", sentDelta == 0 ? 0 :
+                    TimeUnit.NANOSECONDS.toMicros(latency - stats.lastLatencyNanos) / sentDelta / 1000.0);
+            map.put("maxLatencyMillis", TimeUnit.NANOSECONDS.toMillis(stats.maxLatencyNanos.getAndSet(0)));
+            stats.lastSent = sent;
+            stats.lastFailed = failed;
+            stats.lastRejected = rejected;
+            stats.lastLatencyNanos = latency;
+            period.put(entry.getKey(), map);
+        }
+        long count = lagCount.sumThenReset();
+        long lag = lagMillis.sumThenReset();
+        period.put("avgLagMillis", count == 0 ? 0 : lag / count);
+        period.put("maxLagMillis", maxLagMillis.getAndSet(0));
+        lastPeriod = period;
+
+        if (!topics.isEmpty()) {
+            logger.info("事件发布统计: " + period);
+        }
+    }
+
+    //累计值和最近一个周期的统计
+    public Map<String, Object> snapshot() {
+        Map<String, Object> total = new HashMap<>();
+        for (Map.Entry<String, TopicStats> entry : topics.entrySet()) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("sent", entry.getValue().sent.sum());
+            map.put("failed", entry.getValue().failed.sum());
+            map.put("rejected", entry.getValue().rejected.sum());
+            total.put(entry.getKey(), map);
+        }
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("total", total);
+        snapshot.put("lastPeriod", lastPeriod);
+        return snapshot;
+    }
+
+    private TopicStats stats(String topic) {
+        return topics.computeIfAbsent(topic, t -> new TopicStats());
+    }
+
+    private static class TopicStats {
+        final LongAdder sent = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder latencyNanos = new LongAdder();
+        final AtomicLong maxLatencyNanos = new AtomicLong();
+        //上一个周期结束时的累计值，只在report中读写
+        long lastSent;
+        long lastFailed;
+        long lastRejected;
+        long lastLatencyNanos;
+    }
+
+}
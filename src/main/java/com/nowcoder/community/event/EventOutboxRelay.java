@@ -0,0 +1,244 @@
+package com.nowcoder.community.event;
+
+import com.nowcoder.community.dao.EventOutboxMapper;
+import com.nowcoder.community.entity.OutboxEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+//发件箱中继：按id顺序批量读取发件箱，通过EventTransport发布，不等确认就读取下一批，确认成功后删除
+//至少一次：发布成功但删除前宕机、或多个节点同时中继时，事件可能被重复发布，由消费者去重
+@Component
+public class EventOutboxRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventOutboxRelay.class);
+
+    @Autowired
+    private EventOutboxMapper eventOutboxMapper;
+
+    @Autowired
+    private EventProducer eventProducer;
+
+    @Autowired
+    private EventMetrics eventMetrics;
+
+    @Value("${community.outbox.batch-size:500}")
+    private int batchSize;
+
+    //等待发布确认的最长时间
+    @Value("${community.outbox.send-timeout-millis:10000}")
+    private long sendTimeoutMillis;
+
+    @Value("${community.outbox.poll-millis:200}")
+    private long pollMillis;
+
+    //中继在自己的线程中运行：等待确认时不占用Spring的定时任务线程，夜间的批处理任务也不会让事件停止发布
+    private ScheduledExecutorService executor;
+
+    //已发送、按id顺序等待确认的事件，只在中继线程中访问
+    private final Deque<SentEvent> sent = new ArrayDeque<>();
+
+    //本轮已发送的最大id，下一批从它之后读取
+    private long cursor;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "outbox-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::relay, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(sendTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    //中继线程调用：发送不等确认，批次之间流水线执行，在途事件达到上限(EventProducer的max-in-flight)时才等待最早的确认
+    //读到发件箱末尾后不再读取新事件，等在途事件都确认后返回，下一轮从pollMillis之后开始
+    public void relay() {
+        //每一轮都从发件箱开头读取：id自增，但事务的提交顺序不一定和id一致，
+        //cursor经过时还没提交的事件id比cursor小，下一轮才能读到
+        cursor = 0;
+        boolean caughtUp = false;
+        try {
+            while (true) {
+                reap();
+                if (!caughtUp && eventProducer.remainingCapacity() > 0) {
+                    if (sendBatch() > 0) {
+                        continue;
+                    }
+                    caughtUp = true;
+                    eventProducer.flush();
+                }
+                if (sent.isEmpty()) {
+                    return;
+                }
+                //在途已满或发件箱已读完：等最早的事件确认后再继续
+                awaitHead();
+            }
+        } catch (Exception e) {
+            logger.error("发布发件箱事件失败: " + e.getMessage(), e);
+            settle();
+        }
+    }
+
+    //发布失败：等在途事件都有结果(最多sendTimeoutMillis)，删除其中已确认的事件
+    //失败和未确认的事件留在发件箱中，下一轮从开头读取时重新发布
+    private void settle() {
+        List<Long> published = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + sendTimeoutMillis;
+        try {
+            for (SentEvent event : sent) {
+                try {
+                    event.future.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+                    published.add(event.event.getId());
+                    eventMetrics.recordLag(System.currentTimeMillis() - event.event.getCreateTime().getTime());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException | TimeoutException | CancellationException e) {
+                    //留在发件箱中
+                }
+            }
+            if (!published.isEmpty()) {
+                eventOutboxMapper.deleteOutboxEvents(published);
+            }
+        } catch (Exception e) {
+            logger.error("删除已发布的发件箱事件失败，这些事件会被重复发布: " + e.getMessage(), e);
+        } finally {
+            sent.clear();
+        }
+    }
+
+    //读取cursor之后的事件并发送，不等确认，返回发送的数量
+    private int sendBatch() {
+        int limit = Math.min(batchSize, eventProducer.remainingCapacity());
+        if (limit <= 0) {
+            return 0;
+        }
+        List<OutboxEvent> events = eventOutboxMapper.selectOutboxEvents(cursor, limit);
+        int count = 0;
+        for (OutboxEvent event : events) {
+            CompletableFuture<?> future = eventProducer.send(event.getTopic(), event.getEventKey(), event.getPayload());
+            //被拒绝时不再发送后面的事件，保持发布顺序，下次从这里继续
+            if (isRejected(future)) {
+                break;
+            }
+            sent.addLast(new SentEvent(event, future, System.currentTimeMillis()));
+            cursor = event.getId();
+            count++;
+        }
+        return count;
+    }
+
+    //删除已确认的事件：只删除第一个未确认事件之前的部分，最早的事件失败或超时时抛出异常
+    private void reap() {
+        List<Long> published = new ArrayList<>();
+        try {
+            while (!sent.isEmpty()) {
+                SentEvent head = sent.peekFirst();
+                if (!head.future.isDone()) {
+                    if (System.currentTimeMillis() - head.sendTime > sendTimeoutMillis) {
+                        throw new IllegalStateException("等待发布确认超时: " + sendTimeoutMillis + "ms");
+                    }
+                    break;
+                }
+                if (head.future.isCompletedExceptionally()) {
+                    throw new IllegalStateException("发布事件失败，稍后重试: " + cause(head.future));
+                }
+                sent.pollFirst();
+                published.add(head.event.getId());
+                eventMetrics.recordLag(System.currentTimeMillis() - head.event.getCreateTime().getTime());
+            }
+        } finally {
+            if (!published.isEmpty()) {
+                eventOutboxMapper.deleteOutboxEvents(published);
+            }
+        }
+    }
+
+    //等待最早的在途事件确认，最多等pollMillis
+    private void awaitHead() {
+        try {
+            sent.peekFirst().future.get(pollMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待发布确认被中断", e);
+        } catch (ExecutionException | TimeoutException e) {
+            //由reap处理
+        }
+    }
+
+    private static boolean isRejected(CompletableFuture<?> future) {
+        if (!future.isCompletedExceptionally()) {
+            return false;
+        }
+        try {
+            future.join();
+            return false;
+        } catch (CompletionException e) {
+            return e.getCause() instanceof RejectedExecutionException;
+        }
+    }
+
+    private static String cause(CompletableFuture<?> future) {
+        try {
+            future.join();
+            return null;
+        } catch (CompletionException e) {
+            return e.getCause() == null ? e.getMessage() : e.getCause().getMessage();
+        } catch (CancellationException e) {
+            return "已取消";
+        }
+    }
+
+    //发件箱积压：未发布的事件数和最早一个事件等待的毫秒数
+    public Map<String, Object> findBacklog() {
+        Map<String, Object> backlog = new HashMap<>();
+        Map<String, Object> stats = eventOutboxMapper.selectOutboxStats();
+        Date oldest = stats == null ? null : (Date) stats.get("oldest");
+        backlog.put("pending", stats == null ? 0 : ((Number) stats.get("pending")).intValue());
+        backlog.put("oldestWaitMillis", oldest == null ? 0 : System.currentTimeMillis() - oldest.getTime());
+        return backlog;
+    }
+
+    private static class SentEvent {
+
+        private final OutboxEvent event;
+        private final CompletableFuture<?> future;
+        private final long sendTime;
+
+        SentEvent(OutboxEvent event, CompletableFuture<?> future, long sendTime) {
+            this.event = event;
+            this.future = future;
+            this.sendTime = sendTime;
+        }
+
+    }
+
+}
@@ -1,21 +1,109 @@
 package com.nowcoder.community.event;
 
-import com.alibaba.fastjson.JSONObject;
+import com.nowcoder.community.dao.EventOutboxMapper;
 import com.nowcoder.community.entity.Event;
+import com.nowcoder.community.entity.OutboxEvent;
+import com.nowcoder.community.util.CommunityUtil;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 @Component
 public class EventProducer {
 
     @Autowired
-    private KafkaTemplate kafkaTemplate;
+    private EventTransport eventTransport;
+
+    @Autowired
+    private EventOutboxMapper eventOutboxMapper;
+
+    @Autowired
+    private EventMetrics eventMetrics;
+
+    //最多允许多少个事件已发送但未被确认
+    @Value("${community.event.max-in-flight:10000}")
+    private int maxInFlight;
+
+    //写入的事件编码版本，见EventCodec：先升级全部消费者，再提高这个版本
+    @Value("${community.event.codec-version:2}")
+    private byte codecVersion;
+
+    private Semaphore inFlight;
+
+    @PostConstruct
+    public void init(){
+        inFlight = new Semaphore(maxInFlight);
+        if(codecVersion != EventCodec.VERSION_JSON && codecVersion != EventCodec.VERSION_1
+                && codecVersion != EventCodec.VERSION_2){
+            throw new IllegalStateException("不支持的事件编码版本: " + codecVersion);
+        }
+    }
 
-    //处理事件（发布消息）
+    //处理事件：写入发件箱，有事务时加入调用方的事务，和业务数据一起提交或回滚
+    //请求线程不等待Kafka，由EventOutboxRelay异步发布
+    @Transactional(propagation = Propagation.REQUIRED)
     public void fireEvent(Event event){
-        //将事件发布到指定的主题
-        kafkaTemplate.send(event.getTopic(), JSONObject.toJSONString(event));
+        if(event.getId() == null){
+            event.setId(CommunityUtil.generateUUID());
+        }
+        OutboxEvent outboxEvent = new OutboxEvent();
+        outboxEvent.setTopic(event.getTopic());
+        outboxEvent.setEventKey(eventKey(event));
+        outboxEvent.setPayload(EventCodec.encode(event, codecVersion));
+        outboxEvent.setCreateTime(new Date());
+        eventOutboxMapper.insertOutboxEvent(outboxEvent);
+    }
+
+    //通过配置的传输方式将事件发布到指定的主题，不阻塞调用线程，返回的future在确认或失败时完成
+    //在途(已发送未确认)的事件超过上限时直接以RejectedExecutionException失败，事件留在发件箱中稍后重试
+    public CompletableFuture<?> send(String topic, String key, byte[] payload){
+        if(!inFlight.tryAcquire()){
+            eventMetrics.recordRejected(topic);
+            CompletableFuture<Void> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new RejectedExecutionException("在途事件超过上限: " + maxInFlight));
+            return rejected;
+        }
+        long start = System.nanoTime();
+        CompletableFuture<?> future;
+        try {
+            future = eventTransport.send(topic, key, payload);
+        } catch (Exception e) {
+            //缓冲区满且超过max.block.ms、序列化失败等
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            future = failed;
+        }
+        return future.whenComplete((result, e) -> {
+            inFlight.release();
+            if(e == null){
+                eventMetrics.recordSuccess(topic, System.nanoTime() - start);
+            }else{
+                eventMetrics.recordFailure(topic);
+            }
+        });
+    }
+
+    //还能发送多少个事件而不被拒绝
+    public int remainingCapacity(){
+        return inFlight.availablePermits();
+    }
+
+    //按事件的接收者分区：同一个用户的通知事件由同一个消费线程按顺序处理，活跃用户只占用一个分区
+    //没有接收者的事件(如发帖)不指定key
+    public static String eventKey(Event event){
+        return event.getEntityUserId() > 0 ? String.valueOf(event.getEntityUserId()) : null;
+    }
+
+    public void flush(){
+        eventTransport.flush();
     }
 
 }
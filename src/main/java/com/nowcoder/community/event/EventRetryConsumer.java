@@ -0,0 +1,73 @@
+package com.nowcoder.community.event;
+
+import com.nowcoder.community.entity.Event;
+import com.nowcoder.community.util.CommunityConstant;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+//消费延迟重试主题：每一级一个监听，同一级的事件延迟相同，按到期顺序排列
+//队首的事件未到期时nack，等待后重新拉取，只暂停这一级的重试，不影响原主题和其他级别
+@Component
+public class EventRetryConsumer implements CommunityConstant {
+
+    //一次nack最多等待的时间，避免超过max.poll.interval.ms
+    private static final long MAX_WAIT_MILLIS = 5000;
+
+    @Autowired
+    private List<EventHandler> eventHandlers;
+
+    @Autowired
+    private EventRetryPublisher eventRetryPublisher;
+
+    @KafkaListener(topics = TOPIC_RETRY_1, containerFactory = "retryListenerFactory")
+    public void handleRetry1(ConsumerRecord<String, byte[]> record, Acknowledgment ack) {
+        handleRetry(record, ack);
+    }
+
+    @KafkaListener(topics = TOPIC_RETRY_2, containerFactory = "retryListenerFactory")
+    public void handleRetry2(ConsumerRecord<String, byte[]> record, Acknowledgment ack) {
+        handleRetry(record, ack);
+    }
+
+    @KafkaListener(topics = TOPIC_RETRY_3, containerFactory = "retryListenerFactory")
+    public void handleRetry3(ConsumerRecord<String, byte[]> record, Acknowledgment ack) {
+        handleRetry(record, ack);
+    }
+
+    private void handleRetry(ConsumerRecord<String, byte[]> record, Acknowledgment ack) {
+        long wait = EventRetryPublisher.dueTime(record) - System.currentTimeMillis();
+        if (wait > 0) {
+            ack.nack(Math.min(wait, MAX_WAIT_MILLIS));
+            return;
+        }
+        String topic = EventRetryPublisher.originalTopic(record);
+        String failed = EventRetryPublisher.failedHandler(record);
+        EventHandler current = null;
+        try {
+            Event event = EventCodec.decode(record.value());
+            for (EventHandler handler : eventHandlers) {
+                if (Arrays.asList(handler.getTopics()).contains(topic)
+                        && (failed == null || failed.equals(handlerName(handler)))) {
+                    current = handler;
+                    handler.handleEvents(Collections.singletonList(event));
+                }
+            }
+        } catch (Exception e) {
+            eventRetryPublisher.retry(record, record.value(), current == null ? failed : handlerName(current), e);
+        }
+        ack.acknowledge();
+    }
+
+    public static String handlerName(EventHandler handler) {
+        return ClassUtils.getUserClass(handler).getSimpleName();
+    }
+
+}
@@ -0,0 +1,263 @@
+package com.nowcoder.community.event;
+
+import com.nowcoder.community.util.CommunityConstant;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.core.log.LogAccessor;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ListenerUtils;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.serializer.DeserializationException;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/*
+    处理失败的事件不阻塞原分区，而是转发到延迟重试主题：
+    第n次失败进入TOPIC_RETRY_n，到期时间按initial-delay * multiplier^(n-1)计算，重试用尽后进入死信主题
+    失败原因和原始位置用Spring的kafka_dlt-*消息头记录，重试次数和到期时间用event-retry-*消息头记录
+ */
+@Component
+public class EventRetryPublisher implements CommunityConstant {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventRetryPublisher.class);
+
+    private static final String[] RETRY_TOPICS = {TOPIC_RETRY_1, TOPIC_RETRY_2, TOPIC_RETRY_3};
+
+    public static final String HEADER_ATTEMPT = "event-retry-attempt";
+    public static final String HEADER_DUE = "event-retry-due";
+    //失败的处理器，重试时只交给它处理
+    public static final String HEADER_HANDLER = "event-retry-handler";
+
+    private static final String REPLAY_GROUP = "event-dlt-replay";
+
+    private static final LogAccessor LOG_ACCESSOR = new LogAccessor(EventRetryPublisher.class);
+
+    @Autowired
+    private KafkaTemplate<String, byte[]> eventKafkaTemplate;
+
+    @Autowired
+    private KafkaProperties kafkaProperties;
+
+    @Value("${community.event.retry.initial-delay-millis:1000}")
+    private long initialDelayMillis;
+
+    @Value("${community.event.retry.multiplier:5}")
+    private int multiplier;
+
+    @Value("${community.outbox.send-timeout-millis:10000}")
+    private long sendTimeoutMillis;
+
+    //把处理失败的事件转发到下一级重试主题或死信主题，写入成功后调用方才能提交原记录的offset
+    public void retry(ConsumerRecord<String, ?> record, byte[] payload, String handler, Exception e) {
+        int attempt = intHeader(record.headers(), HEADER_ATTEMPT, 0) + 1;
+        forward(record, payload, handler, e, attempt);
+        if (attempt > RETRY_TOPICS.length) {
+            logger.error("事件重试" + RETRY_TOPICS.length + "次仍然失败，进入死信主题: " + originalTopic(record)
+                    + ", 原因: " + e.getMessage());
+        } else {
+            logger.warn("事件处理失败，第" + attempt + "次重试进入" + RETRY_TOPICS[attempt - 1] + ": " + e.getMessage());
+        }
+    }
+
+    //value无法解析的记录(ErrorHandlingDeserializer把异常和原始内容放在消息头中)，重试也无法解析，直接转发到死信主题
+    //返回true表示已转发，调用方跳过这条记录；修复格式问题(如先升级消费者)后可以重放
+    public boolean deadLetterIfUndecodable(ConsumerRecord<String, ?> record, String handler) {
+        DeserializationException e = ListenerUtils.getExceptionFromHeader(
+                record, ErrorHandlingDeserializer.VALUE_DESERIALIZER_EXCEPTION_HEADER, LOG_ACCESSOR);
+        if (e == null) {
+            return false;
+        }
+        forward(record, e.getData(), handler, e, RETRY_TOPICS.length + 1);
+        logger.error("事件格式错误，进入死信主题: " + record.topic() + "-" + record.partition() + "@" + record.offset()
+                + ", 原因: " + e.getMessage());
+        return true;
+    }
+
+    //第attempt次失败：转发到对应的重试主题，超过重试次数时转发到死信主题
+    private void forward(ConsumerRecord<String, ?> record, byte[] payload, String handler, Exception e, int attempt) {
+        Headers previous = record.headers();
+        boolean dead = attempt > RETRY_TOPICS.length;
+        String topic = dead ? TOPIC_DEAD_LETTER : RETRY_TOPICS[attempt - 1];
+
+        Headers headers = new RecordHeaders();
+        //第一次失败时记录原始位置，之后原样传递
+        if (previous.lastHeader(KafkaHeaders.DLT_ORIGINAL_TOPIC) == null) {
+            headers.add(KafkaHeaders.DLT_ORIGINAL_TOPIC, record.topic().getBytes(StandardCharsets.UTF_8));
+            headers.add(KafkaHeaders.DLT_ORIGINAL_PARTITION, ByteBuffer.allocate(4).putInt(record.partition()).array());
+            headers.add(KafkaHeaders.DLT_ORIGINAL_OFFSET, ByteBuffer.allocate(8).putLong(record.offset()).array());
+            headers.add(KafkaHeaders.DLT_ORIGINAL_TIMESTAMP, ByteBuffer.allocate(8).putLong(record.timestamp()).array());
+        } else {
+            copyHeader(previous, headers, KafkaHeaders.DLT_ORIGINAL_TOPIC);
+            copyHeader(previous, headers, KafkaHeaders.DLT_ORIGINAL_PARTITION);
+            copyHeader(previous, headers, KafkaHeaders.DLT_ORIGINAL_OFFSET);
+            copyHeader(previous, headers, KafkaHeaders.DLT_ORIGINAL_TIMESTAMP);
+        }
+        headers.add(KafkaHeaders.DLT_EXCEPTION_FQCN, e.getClass().getName().getBytes(StandardCharsets.UTF_8));
+        headers.add(KafkaHeaders.DLT_EXCEPTION_MESSAGE, String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+        headers.add(HEADER_ATTEMPT, ByteBuffer.allocate(4).putInt(attempt).array());
+        if (handler != null) {
+            headers.add(HEADER_HANDLER, handler.getBytes(StandardCharsets.UTF_8));
+        }
+        if (!dead) {
+            long due = System.currentTimeMillis() + delayMillis(attempt);
+            headers.add(HEADER_DUE, ByteBuffer.allocate(8).putLong(due).array());
+        }
+
+        try {
+            eventKafkaTemplate.send(new ProducerRecord<>(topic, null, record.key(), payload, headers))
+                    .get(sendTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("转发失败事件被中断", ex);
+        } catch (Exception ex) {
+            throw new IllegalStateException("转发失败事件到" + topic + "失败: " + ex.getMessage(), ex);
+        }
+    }
+
+    //第attempt次重试的延迟
+    public long delayMillis(int attempt) {
+        long delay = initialDelayMillis;
+        for (int i = 1; i < attempt; i++) {
+            delay *= multiplier;
+        }
+        return delay;
+    }
+
+    //把死信主题中的事件批量重新发布到原来的主题，返回重新发布的数量
+    //用独立的消费组记录重放进度，同一条死信只重放一次；全部发布成功后才提交进度
+    public int replayDeadLetters(int limit) {
+        try (Consumer<String, byte[]> consumer = createReplayConsumer(limit)) {
+            List<TopicPartition> partitions = deadLetterPartitions(consumer);
+            if (partitions.isEmpty()) {
+                return 0;
+            }
+            consumer.assign(partitions);
+
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+            Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            while (futures.size() < limit) {
+                ConsumerRecords<String, byte[]> records = consumer.poll(Duration.ofSeconds(1));
+                if (records.isEmpty()) {
+                    break;
+                }
+                for (ConsumerRecord<String, byte[]> record : records) {
+                    if (futures.size() >= limit) {
+                        break;
+                    }
+                    futures.add(eventKafkaTemplate.send(originalTopic(record), record.key(), record.value()).completable());
+                    offsets.put(new TopicPartition(record.topic(), record.partition()), new OffsetAndMetadata(record.offset() + 1));
+                }
+            }
+            eventKafkaTemplate.flush();
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(sendTimeoutMillis, TimeUnit.MILLISECONDS);
+            if (!offsets.isEmpty()) {
+                consumer.commitSync(offsets);
+            }
+            logger.info("重放死信事件" + futures.size() + "个");
+            return futures.size();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("重放死信事件被中断", e);
+        } catch (Exception e) {
+            throw new IllegalStateException("重放死信事件失败: " + e.getMessage(), e);
+        }
+    }
+
+    //尚未重放的死信数量
+    public long countDeadLetters() {
+        try (Consumer<String, byte[]> consumer = createReplayConsumer(1)) {
+            List<TopicPartition> partitions = deadLetterPartitions(consumer);
+            if (partitions.isEmpty()) {
+                return 0;
+            }
+            Map<TopicPartition, Long> ends = consumer.endOffsets(partitions);
+            Map<TopicPartition, Long> begins = consumer.beginningOffsets(partitions);
+            Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(ends.keySet());
+            long count = 0;
+            for (TopicPartition partition : partitions) {
+                OffsetAndMetadata offset = committed.get(partition);
+                long from = Math.max(begins.get(partition), offset == null ? 0 : offset.offset());
+                count += Math.max(ends.get(partition) - from, 0);
+            }
+            return count;
+        }
+    }
+
+    //事件第一次失败前所在的主题
+    public static String originalTopic(ConsumerRecord<String, ?> record) {
+        Header header = record.headers().lastHeader(KafkaHeaders.DLT_ORIGINAL_TOPIC);
+        return header == null ? record.topic() : new String(header.value(), StandardCharsets.UTF_8);
+    }
+
+    //重试到期的时间，没有时立即到期
+    public static long dueTime(ConsumerRecord<String, ?> record) {
+        Header header = record.headers().lastHeader(HEADER_DUE);
+        return header == null ? 0 : ByteBuffer.wrap(header.value()).getLong();
+    }
+
+    public static String failedHandler(ConsumerRecord<String, ?> record) {
+        Header header = record.headers().lastHeader(HEADER_HANDLER);
+        return header == null ? null : new String(header.value(), StandardCharsets.UTF_8);
+    }
+
+    private static int intHeader(Headers headers, String key, int defaultValue) {
+        Header header = headers.lastHeader(key);
+        return header == null ? defaultValue : ByteBuffer.wrap(header.value()).getInt();
+    }
+
+    private static void copyHeader(Headers from, Headers to, String key) {
+        Header header = from.lastHeader(key);
+        if (header != null) {
+            to.add(key, header.value());
+        }
+    }
+
+    private Consumer<String, byte[]> createReplayConsumer(int maxPollRecords) {
+        Map<String, Object> props = kafkaProperties.buildConsumerProperties();
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, REPLAY_GROUP);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, Math.max(maxPollRecords, 1));
+        return new KafkaConsumer<>(props, new StringDeserializer(), new ByteArrayDeserializer());
+    }
+
+    private static List<TopicPartition> deadLetterPartitions(Consumer<String, byte[]> consumer) {
+        Collection<PartitionInfo> infos = consumer.partitionsFor(TOPIC_DEAD_LETTER);
+        if (infos == null) {
+            return new ArrayList<>();
+        }
+        return infos.stream()
+                .map(info -> new TopicPartition(info.topic(), info.partition()))
+                .collect(Collectors.toList());
+    }
+
+}
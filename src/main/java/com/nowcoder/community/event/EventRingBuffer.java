@@ -0,0 +1,278 @@
+package com.nowcoder.community.event;
+
+import com.alibaba.fastjson.JSONObject;
+import com.nowcoder.community.entity.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+    单写多读的环形缓冲区：槽位在创建时分配好，发布时只复用槽位，不分配节点
+    写入方按序号依次填充槽位后推进cursor；每个消费者有自己的序号，读到cursor为止，批量交给处理器
+    写入方追上最慢的消费者(缓冲区满)时拒绝发布，不阻塞也不覆盖未处理的事件
+    每个槽位记录还有几个消费者没处理，最后一个处理完的消费者完成该事件的future
+    处理失败时逐个重试，每个事件最多处理maxAttempts次，之后记录日志并跳过(对应Kafka的重试主题和死信主题)，
+    一个总是失败的事件不会让发件箱反复重新发布它而停住整个事件总线
+ */
+public class EventRingBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventRingBuffer.class);
+
+    //消费者空闲时先自旋，再让出CPU，最后短暂休眠
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 200;
+    private static final long PARK_NANOS = 100_000;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final int maxBatch;
+
+    //每个事件最多处理的次数，重试前等待的时间，之后每次乘以multiplier
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final int multiplier;
+
+    private final Consumer[] consumers;
+
+    //各主题的订阅者数量，创建后不再修改
+    private final Map<String, Integer> subscriberCounts = new HashMap<>();
+
+    //最后一个已发布的序号，消费者只读到这里
+    private final AtomicLong cursor = new AtomicLong(-1);
+
+    //下一个要写入的序号和最近一次看到的最慢消费者序号，只由写入方访问
+    private long next;
+    private long gatingSequence = -1;
+
+    private volatile boolean running;
+
+    public EventRingBuffer(int bufferSize, int maxBatch, int maxAttempts, long retryDelayMillis, int multiplier,
+                           List<? extends EventHandler> handlers) {
+        int capacity = Integer.highestOneBit(Math.max(bufferSize, 2) - 1) << 1;
+        this.slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = capacity - 1;
+        this.maxBatch = Math.max(maxBatch, 1);
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        this.retryDelayMillis = retryDelayMillis;
+        this.multiplier = Math.max(multiplier, 1);
+        this.consumers = new Consumer[handlers.size()];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new Consumer(handlers.get(i));
+            for (String topic : consumers[i].topics) {
+                subscriberCounts.merge(topic, 1, Integer::sum);
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    public void start() {
+        running = true;
+        for (Consumer consumer : consumers) {
+            consumer.thread.start();
+        }
+    }
+
+    //停止消费线程，已发布但未处理的事件对应的future不会完成
+    public void stop() {
+        running = false;
+        for (Consumer consumer : consumers) {
+            LockSupport.unpark(consumer.thread);
+        }
+        for (Consumer consumer : consumers) {
+            try {
+                consumer.thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    //发布事件，同一时刻只有一个写入方(发件箱中继线程)，加锁只是防止误用，无竞争时开销很小
+    //没有订阅者的主题直接确认；缓冲区满时返回以RejectedExecutionException失败的future
+    public synchronized CompletableFuture<Void> publish(String topic, byte[] payload) {
+        int subscribers = subscriberCounts.getOrDefault(topic, 0);
+        if (subscribers == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long sequence = next;
+        long wrapPoint = sequence - slots.length;
+        if (wrapPoint > gatingSequence) {
+            gatingSequence = minConsumerSequence();
+            if (wrapPoint > gatingSequence) {
+                CompletableFuture<Void> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(new RejectedExecutionException("事件缓冲区已满: " + slots.length));
+                return rejected;
+            }
+        }
+        Slot slot = slots[(int) sequence & mask];
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        slot.topic = topic;
+        slot.payload = payload;
+        slot.future = future;
+        slot.remaining.set(subscribers);
+        next = sequence + 1;
+        cursor.set(sequence);
+        return future;
+    }
+
+    private long minConsumerSequence() {
+        long min = Long.MAX_VALUE;
+        for (Consumer consumer : consumers) {
+            min = Math.min(min, consumer.sequence.get());
+        }
+        return min;
+    }
+
+    private static final class Slot {
+        String topic;
+        byte[] payload;
+        CompletableFuture<Void> future;
+        final AtomicInteger remaining = new AtomicInteger();
+    }
+
+    private final class Consumer implements Runnable {
+
+        final EventHandler handler;
+        final Set<String> topics;
+        final Thread thread;
+
+        //最后一个已处理的序号，写入方据此判断槽位能否复用
+        final AtomicLong sequence = new AtomicLong(-1);
+
+        Consumer(EventHandler handler) {
+            this.handler = handler;
+            this.topics = new HashSet<>(Arrays.asList(handler.getTopics()));
+            this.thread = new Thread(this, "event-bus-" + handler.getClass().getSimpleName());
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long processed = sequence.get();
+            int idle = 0;
+            List<Event> events = new ArrayList<>(maxBatch);
+            while (running) {
+                long available = cursor.get();
+                if (available <= processed) {
+                    idle = waitIdle(idle);
+                    continue;
+                }
+                idle = 0;
+                long end = Math.min(available, processed + maxBatch);
+
+                events.clear();
+                for (long s = processed + 1; s <= end; s++) {
+                    Slot slot = slots[(int) s & mask];
+                    if (topics.contains(slot.topic)) {
+                        Event event = decode(slot);
+                        if (event != null) {
+                            events.add(event);
+                        }
+                    }
+                }
+                //停止时还没处理完：不完成future，事件留在发件箱中，下次启动时重新发布
+                if (!events.isEmpty() && !handle(events)) {
+                    return;
+                }
+                for (long s = processed + 1; s <= end; s++) {
+                    Slot slot = slots[(int) s & mask];
+                    if (topics.contains(slot.topic)) {
+                        complete(slot);
+                    }
+                }
+                processed = end;
+                sequence.set(processed);
+            }
+        }
+
+        private Event decode(Slot slot) {
+            try {
+                return EventCodec.decode(slot.payload);
+            } catch (Exception e) {
+                logger.error("事件格式错误: " + slot.topic + ", " + e.getMessage());
+                return null;
+            }
+        }
+
+        //整批处理失败时逐个重试，同一批中的其他事件不受影响；重试用尽的事件记录日志后跳过，停止时返回false
+        private boolean handle(List<Event> events) {
+            try {
+                handler.handleEvents(events);
+                return true;
+            } catch (Throwable e) {
+                logger.error("处理事件失败，逐个重试: " + e.getMessage(), e);
+            }
+            for (Event event : events) {
+                long delay = retryDelayMillis;
+                for (int attempt = 1; ; attempt++) {
+                    try {
+                        handler.handleEvents(Collections.singletonList(event));
+                        break;
+                    } catch (Throwable e) {
+                        if (attempt >= maxAttempts) {
+                            logger.error("事件处理失败" + maxAttempts + "次，跳过: " + handler.getClass().getSimpleName()
+                                    + ", " + JSONObject.toJSONString(event) + ", 原因: " + e.getMessage(), e);
+                            break;
+                        }
+                        logger.warn("事件处理失败，" + delay + "ms后第" + attempt + "次重试: " + e.getMessage());
+                    }
+                    if (!sleep(delay)) {
+                        return false;
+                    }
+                    delay *= multiplier;
+                }
+            }
+            return true;
+        }
+
+        //等待重试，停止时提前返回false
+        private boolean sleep(long millis) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            long remaining;
+            while (running && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+            return running;
+        }
+
+        private void complete(Slot slot) {
+            if (slot.remaining.decrementAndGet() == 0) {
+                slot.future.complete(null);
+            }
+        }
+
+        private int waitIdle(int idle) {
+            if (idle < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else if (idle < SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+                return idle;
+            }
+            return idle + 1;
+        }
+    }
+
+}
@@ -0,0 +1,15 @@
+package com.nowcoder.community.event;
+
+import com.nowcoder.community.entity.Event;
+import org.apache.kafka.common.serialization.Serializer;
+
+//Kafka的value序列化：Event -> EventCodec编码的二进制，和EventDeserializer配对
+//发布事件时发件箱中保存的已经是编码后的内容，eventKafkaTemplate直接发送byte[]，不经过这个类；直接向Kafka写入Event对象时使用
+public class EventSerializer implements Serializer<Event> {
+
+    @Override
+    public byte[] serialize(String topic, Event event) {
+        return event == null ? null : EventCodec.encode(event);
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.nowcoder.community.event;
+
+import java.util.concurrent.CompletableFuture;
+
+//事件的传输方式，由community.event.transport选择：
+//kafka(默认)发布到Kafka；local发布到进程内的环形缓冲区，用于没有Kafka的单节点部署和测试环境
+public interface EventTransport {
+
+    //发送编码后的事件，不阻塞调用线程；返回的future在事件被确认时完成，失败时事件留在发件箱中重试
+    //key相同的事件保持发布顺序，key为null时不保证顺序
+    CompletableFuture<?> send(String topic, String key, byte[] payload);
+
+    //把已发送的事件尽快推送出去
+    void flush();
+
+}
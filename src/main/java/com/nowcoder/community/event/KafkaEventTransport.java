@@ -0,0 +1,28 @@
+package com.nowcoder.community.event;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+
+//通过Kafka发布事件，future在broker确认写入后完成；key决定分区，同一个key的事件在分区内有序
+@Component
+@ConditionalOnProperty(name = "community.event.transport", havingValue = "kafka", matchIfMissing = true)
+public class KafkaEventTransport implements EventTransport {
+
+    @Autowired
+    private KafkaTemplate<String, byte[]> eventKafkaTemplate;
+
+    @Override
+    public CompletableFuture<?> send(String topic, String key, byte[] payload) {
+        return eventKafkaTemplate.send(topic, key, payload).completable();
+    }
+
+    @Override
+    public void flush() {
+        eventKafkaTemplate.flush();
+    }
+
+}
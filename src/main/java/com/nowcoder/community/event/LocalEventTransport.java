@@ -0,0 +1,64 @@
+package com.nowcoder.community.event;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+//进程内的事件总线：事件写入环形缓冲区，每个EventHandler一个消费线程
+//future在所有订阅该主题的处理器处理完后才完成，发件箱随后删除事件，进程退出时未处理的事件仍在发件箱中
+@Component
+@ConditionalOnProperty(name = "community.event.transport", havingValue = "local")
+public class LocalEventTransport implements EventTransport {
+
+    @Autowired
+    private List<EventHandler> eventHandlers;
+
+    //环形缓冲区的槽数，向上取整为2的幂；缓冲区满时拒绝发送
+    @Value("${community.event.local.buffer-size:16384}")
+    private int bufferSize;
+
+    //每次交给处理器的最大事件数
+    @Value("${community.event.local.max-batch:500}")
+    private int maxBatch;
+
+    //每个事件最多处理的次数，之后跳过；重试的等待时间和Kafka的重试主题相同
+    @Value("${community.event.local.max-attempts:4}")
+    private int maxAttempts;
+
+    @Value("${community.event.retry.initial-delay-millis:1000}")
+    private long retryDelayMillis;
+
+    @Value("${community.event.retry.multiplier:5}")
+    private int multiplier;
+
+    private EventRingBuffer ringBuffer;
+
+    @PostConstruct
+    public void init() {
+        ringBuffer = new EventRingBuffer(bufferSize, maxBatch, maxAttempts, retryDelayMillis, multiplier, eventHandlers);
+        ringBuffer.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        ringBuffer.stop();
+    }
+
+    //每个处理器按全局发布顺序处理，不需要按key分区
+    @Override
+    public CompletableFuture<?> send(String topic, String key, byte[] payload) {
+        return ringBuffer.publish(topic, payload);
+    }
+
+    //发布后消费者立即可见，不需要flush
+    @Override
+    public void flush() {
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.nowcoder.community.event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+//增量索引的统计：收到的事件数、合并后写入的帖子数、每批的大小和耗时，以及索引延迟
+//索引延迟是事件发布到帖子可以被搜到的时间，包括合并窗口、查询MySQL、写入和刷新
+@Component
+public class SearchIndexMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndexMetrics.class);
+
+    private final LongAdder events = new LongAdder();
+    private final LongAdder posts = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+
+    //索引延迟(毫秒)，周期内的最大值和总和
+    private final AtomicLong maxLagMillis = new AtomicLong();
+    private final LongAdder lagMillis = new LongAdder();
+    private final LongAdder lagCount = new LongAdder();
+
+    //上一个周期结束时的累计值，只在report中读写
+    private long lastEvents;
+    private long lastPosts;
+    private long lastBatches;
+    private long lastFailed;
+    private long lastFlushNanos;
+
+    //最近一个统计周期的结果
+    private volatile Map<String, Object> lastPeriod = new HashMap<>();
+    private volatile long periodStart = System.currentTimeMillis();
+
+    public void recordEvents(int count) {
+        events.add(count);
+    }
+
+    //一批合并后的帖子写入完成
+    public void recordBatch(int size, long costNanos) {
+        posts.add(size);
+        batches.increment();
+        flushNanos.add(costNanos);
+        maxBatchSize.accumulateAndGet(size, Math::max);
+    }
+
+    public void recordFailure(int size) {
+        failed.add(size);
+    }
+
+    public void recordLag(long millis) {
+        lagMillis.add(millis);
+        lagCount.increment();
+        maxLagMillis.accumulateAndGet(millis, Math::max);
+    }
+
+    @Scheduled(fixedRateString = "${community.event.metrics-period-millis:60000}")
+    public void report() {
+        long now = System.currentTimeMillis();
+        double seconds = Math.max(now - periodStart, 1) / 1000.0;
+        periodStart = now;
+
+        long eventCount = events.sum() - lastEvents;
+        long postCount = posts.sum() - lastPosts;
+        long batchCount = batches.sum() - lastBatches;
+        long failedCount = failed.sum() - lastFailed;
+        long flushCost = flushNanos.sum() - lastFlushNanos;
+        lastEvents += eventCount;
+        lastPosts += postCount;
+        lastBatches += batchCount;
+        lastFailed += failedCount;
+        lastFlushNanos += flushCost;
+
+        Map<String, Object> period = new HashMap<>();
+        period.put("eventsPerSecond", eventCount / seconds);
+        period.put("postsPerSecond", postCount / seconds);
+        period.put("batches", batchCount);
+        period.put("failed", failedCount);
+        period.put("avgBatchSize", batchCount == 0 ? 0 : postCount / (double) batchCount);
+        period.put("maxBatchSize", maxBatchSize.getAndSet(0));
+        period.put("avgFlushMillis", batchCount == 0 ? 0 :
+                TimeUnit.NANOSECONDS.toMicros(flushCost) / batchCount / 1000.0);
+        long count = lagCount.sumThenReset();
+        long lag = lagMillis.sumThenReset();
+        period.put("avgLagMillis", count == 0 ? 0 : lag / count);
+        period.put("maxLagMillis", maxLagMillis.getAndSet(0));
+        lastPeriod = period;
+
+        if (eventCount > 0 || failedCount > 0) {
+            logger.info("增量索引统计: " + period);
+        }
+    }
+
+    //累计值和最近一个周期的统计
+    public Map<String, Object> snapshot() {
+        Map<String, Object> total = new HashMap<>();
+        total.put("events", events.sum());
+        total.put("posts", posts.sum());
+        total.put("batches", batches.sum());
+        total.put("failed", failed.sum());
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("total", total);
+        snapshot.put("lastPeriod", lastPeriod);
+        return snapshot;
+    }
+
+}
@@ -0,0 +1,278 @@
+package com.nowcoder.community.event;
+
+import com.nowcoder.community.dao.DiscussPostMapper;
+import com.nowcoder.community.entity.DiscussPost;
+import com.nowcoder.community.entity.Event;
+import com.nowcoder.community.service.SearchService;
+import com.nowcoder.community.util.CommunityConstant;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+    增量索引：发帖、评论、分数变化事件只记录需要更新的帖子id，同一个帖子在一个窗口内的多次更新合并为一次
+    每隔flush-millis(或攒够batch-size个帖子)从MySQL批量读取这些帖子，一次写入搜索引擎并刷新，之后才能搜到
+    写入的是读取时的最新内容，和事件的顺序无关，重复处理也没有影响
+    处理事件的线程等到这些帖子写入后才返回，之后才提交offset(或删除发件箱中的事件)，进程退出不会丢失更新
+ */
+@Component
+public class SearchIndexer implements EventHandler, CommunityConstant {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndexer.class);
+
+    private static final String[] INDEX_TOPICS = {TOPIC_PUBLISH, TOPIC_COMMENT, TOPIC_SCORE};
+
+    @Autowired
+    private DiscussPostMapper discussPostMapper;
+
+    @Autowired
+    private SearchService searchService;
+
+    @Autowired
+    private EventRetryPublisher eventRetryPublisher;
+
+    @Autowired
+    private SearchIndexMetrics searchIndexMetrics;
+
+    //合并窗口，也是事件发布后最长多久可以被搜到(不算写入耗时)
+    @Value("${community.search.index.flush-millis:1000}")
+    private long flushMillis;
+
+    //每次写入的最多帖子数，待写入的帖子达到这个数量时不等窗口结束
+    @Value("${community.search.index.batch-size:500}")
+    private int batchSize;
+
+    //处理事件的线程等待写入完成的最长时间
+    @Value("${community.search.index.wait-millis:30000}")
+    private long waitMillis;
+
+    //lucene的索引在每个节点本地，写入失败时在本节点重试，不转发到各节点共用的重试主题(可能由其他节点消费)
+    @Value("${community.search.backend}")
+    private String backend;
+
+    //本节点重试的次数和第一次重试前的等待时间，之后每次加倍
+    @Value("${community.search.index.local-retry-attempts:3}")
+    private int localRetryAttempts;
+
+    @Value("${community.search.index.local-retry-backoff-millis:1000}")
+    private long localRetryBackoffMillis;
+
+    private final Object lock = new Object();
+
+    //待写入的帖子id -> 其中最早的事件发布时间，用于计算索引延迟
+    private Map<Integer, Long> pending = new HashMap<>();
+
+    //下一次写入完成时完成
+    private CompletableFuture<Void> pendingFlush = new CompletableFuture<>();
+
+    //写入只在这个线程中进行，不占用Spring的定时任务线程(其他任务可能运行很久)
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    public void init() {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "search-indexer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(waitMillis, TimeUnit.MILLISECONDS);
+        flush();
+    }
+
+    //发帖、评论、分数变化事件更新帖子索引，使用独立的消费组(KafkaConfig.searchIndexGroupId)，和生成通知的消费互不影响
+    //写入失败时整批转发到延迟重试主题，重试时逐条交给handleEvents；lucene的索引在本节点重试
+    @KafkaListener(topics = {TOPIC_PUBLISH, TOPIC_COMMENT, TOPIC_SCORE},
+            groupId = "#{@searchIndexGroupId}",
+            containerFactory = "batchListenerFactory")
+    public void handleIndexEvents(List<ConsumerRecord<String, Event>> records) {
+        List<ConsumerRecord<String, Event>> valid = new ArrayList<>(records.size());
+        List<Event> events = new ArrayList<>(records.size());
+        long[] publishTimes = new long[records.size()];
+        for (ConsumerRecord<String, Event> record : records) {
+            if (eventRetryPublisher.deadLetterIfUndecodable(record, EventRetryConsumer.handlerName(this))) {
+                continue;
+            }
+            Event event = EventConsumer.parseEvent(record);
+            if (event != null) {
+                publishTimes[events.size()] = record.timestamp();
+                valid.add(record);
+                events.add(event);
+            }
+        }
+        try {
+            index(events, publishTimes);
+        } catch (Exception e) {
+            if ("lucene".equals(backend)) {
+                retryLocally(events, publishTimes, e);
+                return;
+            }
+            logger.error("更新帖子索引失败，转发到重试主题: " + e.getMessage());
+            for (ConsumerRecord<String, Event> record : valid) {
+                eventRetryPublisher.retry(record, EventCodec.encode(record.value()),
+                        EventRetryConsumer.handlerName(this), e);
+            }
+        }
+    }
+
+    //在处理事件的线程中重试，期间不拉取新的事件；重试用尽后记录日志并跳过，这些帖子等下一次更新或重建索引时修正
+    private void retryLocally(List<Event> events, long[] publishTimes, Exception cause) {
+        long backoff = localRetryBackoffMillis;
+        for (int attempt = 1; attempt <= localRetryAttempts; attempt++) {
+            logger.warn("更新帖子索引失败，" + backoff + "ms后在本节点第" + attempt + "次重试: " + cause.getMessage());
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            try {
+                index(events, publishTimes);
+                return;
+            } catch (Exception e) {
+                cause = e;
+            }
+            backoff *= 2;
+        }
+        List<Integer> postIds = new ArrayList<>();
+        for (Event event : events) {
+            Integer postId = postId(event);
+            if (postId != null) {
+                postIds.add(postId);
+            }
+        }
+        logger.error("更新帖子索引在本节点重试" + localRetryAttempts + "次后仍然失败，跳过帖子" + postIds + ": " + cause.getMessage(), cause);
+    }
+
+    @Override
+    public String[] getTopics() {
+        return INDEX_TOPICS;
+    }
+
+    //进程内事件总线和重试使用，以收到的时间作为发布时间
+    @Override
+    public void handleEvents(List<Event> events) {
+        index(events, null);
+    }
+
+    //待写入的帖子数
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    //记录需要更新的帖子，等待包含它们的那一次写入完成
+    private void index(List<Event> events, long[] publishTimes) {
+        long now = System.currentTimeMillis();
+        CompletableFuture<Void> flushed = null;
+        boolean full = false;
+        synchronized (lock) {
+            for (int i = 0; i < events.size(); i++) {
+                Integer postId = postId(events.get(i));
+                if (postId == null) {
+                    continue;
+                }
+                long publishTime = publishTimes == null || publishTimes[i] <= 0 ? now : Math.min(publishTimes[i], now);
+                pending.merge(postId, publishTime, Math::min);
+                flushed = pendingFlush;
+            }
+            full = pending.size() >= batchSize;
+        }
+        searchIndexMetrics.recordEvents(events.size());
+        if (flushed == null) {
+            return;
+        }
+        if (full && !flusher.isShutdown()) {
+            flusher.execute(this::flush);
+        }
+
+        try {
+            flushed.get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待帖子索引写入被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("写入帖子索引失败: " + e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("等待帖子索引写入超时: " + waitMillis + "ms", e);
+        }
+    }
+
+    //把窗口内合并的帖子写入搜索引擎，已删除(拉黑)的帖子从索引中删除
+    public void flush() {
+        Map<Integer, Long> batch;
+        CompletableFuture<Void> done;
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            done = pendingFlush;
+            pending = new HashMap<>();
+            pendingFlush = new CompletableFuture<>();
+        }
+
+        long start = System.nanoTime();
+        try {
+            List<Integer> ids = new ArrayList<>(batch.keySet());
+            for (int from = 0; from < ids.size(); from += batchSize) {
+                List<DiscussPost> posts = discussPostMapper.selectDiscussPostsByIds(
+                        ids.subList(from, Math.min(from + batchSize, ids.size())));
+                List<DiscussPost> saved = new ArrayList<>(posts.size());
+                for (DiscussPost post : posts) {
+                    if (post.getStatus() == 2) {
+                        searchService.deleteDiscussPost(post.getId());
+                    } else {
+                        saved.add(post);
+                    }
+                }
+                searchService.saveDiscussPosts(saved);
+            }
+        } catch (Exception e) {
+            logger.error("批量写入帖子索引失败: " + e.getMessage(), e);
+            searchIndexMetrics.recordFailure(batch.size());
+            done.completeExceptionally(e);
+            return;
+        }
+
+        long end = System.currentTimeMillis();
+        for (long publishTime : batch.values()) {
+            searchIndexMetrics.recordLag(Math.max(end - publishTime, 0));
+        }
+        searchIndexMetrics.recordBatch(batch.size(), System.nanoTime() - start);
+        done.complete(null);
+    }
+
+    //评论事件的帖子id在data中(评论的对象可能是帖子或评论)，其他事件的实体就是帖子
+    private static Integer postId(Event event) {
+        if (TOPIC_COMMENT.equals(event.getTopic())) {
+            Object postId = event.getData().get("postId");
+            return postId instanceof Number ? ((Number) postId).intValue() : null;
+        }
+        return event.getEntityType() == ENTITY_TYPE_POST ? event.getEntityId() : null;
+    }
+
+}
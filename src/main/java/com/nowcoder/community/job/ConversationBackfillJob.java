@@ -0,0 +1,50 @@
+package com.nowcoder.community.job;
+
+import com.nowcoder.community.dao.ConversationMapper;
+import com.nowcoder.community.dao.MessageMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+//一次性任务：根据message表中已有的私信回填conversation表
+//上线conversation表后以community.conversation.backfill=true启动一次，完成后关闭
+@Component
+public class ConversationBackfillJob implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationBackfillJob.class);
+
+    @Autowired
+    private MessageMapper messageMapper;
+
+    @Autowired
+    private ConversationMapper conversationMapper;
+
+    @Value("${community.conversation.backfill:false}")
+    private boolean enabled;
+
+    //每批处理的消息id区间大小
+    @Value("${community.conversation.backfill-batch:10000}")
+    private int batchSize;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        //只扫描启动时已存在的消息，之后的消息由MessageService.addMessage维护
+        //每个会话的未读数按message表重新计算，中途失败后可以直接重新执行
+        int maxId = messageMapper.selectMaxId();
+        long start = System.currentTimeMillis();
+        for (int from = 1; from <= maxId; from += batchSize) {
+            int to = Math.min(from + batchSize, maxId + 1);
+            conversationMapper.backfillConversations(from, to);
+            logger.info(String.format("回填会话: 消息id [%d, %d) 完成", from, to));
+        }
+        logger.info(String.format("回填会话完成: 共%d条消息, 耗时%dms", maxId, System.currentTimeMillis() - start));
+    }
+
+}
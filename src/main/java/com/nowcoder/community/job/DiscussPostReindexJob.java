@@ -0,0 +1,38 @@
+package com.nowcoder.community.job;
+
+import com.nowcoder.community.service.SearchReindexService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+//从MySQL重建帖子索引：以community.search.reindex.enabled=true启动一次，完成后关闭
+//elasticsearch重建集群中的索引后切换别名，lucene只重建本节点的索引
+//中途失败或被中断时再次以同样的参数启动，从上次完成的区间继续
+@Component
+public class DiscussPostReindexJob implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiscussPostReindexJob.class);
+
+    @Autowired
+    private SearchReindexService searchReindexService;
+
+    @Value("${community.search.reindex.enabled:false}")
+    private boolean enabled;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            searchReindexService.reindex();
+        } catch (Exception e) {
+            logger.error("重建帖子索引失败，已完成的区间会在下次执行时跳过: " + e.getMessage(), e);
+        }
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.nowcoder.community.job;
+
+import com.nowcoder.community.service.FollowRecommendService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+//定时计算"可能认识的人"
+@Component
+public class FollowRecommendJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(FollowRecommendJob.class);
+
+    @Autowired
+    private FollowRecommendService followRecommendService;
+
+    @Scheduled(cron = "${community.recommend.follow.cron:0 0 4 * * ?}")
+    public void execute() {
+        try {
+            followRecommendService.refreshRecommendations();
+        } catch (Exception e) {
+            logger.error("计算关注推荐失败: " + e.getMessage(), e);
+        }
+    }
+
+}
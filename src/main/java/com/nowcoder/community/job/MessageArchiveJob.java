@@ -0,0 +1,36 @@
+package com.nowcoder.community.job;
+
+import com.nowcoder.community.service.MessageArchiveService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+//定时归档历史消息
+@Component
+public class MessageArchiveJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageArchiveJob.class);
+
+    @Autowired
+    private MessageArchiveService messageArchiveService;
+
+    //建好message_archive表之后再打开
+    @Value("${community.message.archive.enabled:false}")
+    private boolean enabled;
+
+    @Scheduled(cron = "${community.message.archive.cron:0 30 3 * * ?}")
+    public void execute() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            messageArchiveService.archive();
+        } catch (Exception e) {
+            logger.error("归档消息失败: " + e.getMessage(), e);
+        }
+    }
+
+}
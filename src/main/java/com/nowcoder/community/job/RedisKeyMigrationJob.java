@@ -0,0 +1,56 @@
+package com.nowcoder.community.job;
+
+import com.nowcoder.community.service.RedisKeyMigrationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.WebApplicationContext;
+
+/*
+    离线任务：把单机模式的key迁移为集群模式(带hash tag)的key，迁移完成后退出进程
+    迁移期间旧key被删除，运行中的实例会读不到点赞、关注和统计数据，所以必须先停掉所有实例，再以
+    --spring.main.web-application-type=none --community.redis.cluster-mode=true --community.redis.migrate=true
+    单独启动一次，之后以community.redis.cluster-mode=true启动全部实例
+ */
+@Component
+public class RedisKeyMigrationJob implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisKeyMigrationJob.class);
+
+    @Autowired
+    private RedisKeyMigrationService redisKeyMigrationService;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Value("${community.redis.migrate:false}")
+    private boolean enabled;
+
+    @Value("${community.redis.cluster-mode:false}")
+    private boolean clusterMode;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        //迁移后的key只有集群模式下才会被读取
+        if (!clusterMode) {
+            throw new IllegalStateException("Redis key迁移需要同时设置community.redis.cluster-mode=true");
+        }
+        //不对外提供服务，避免迁移期间的请求读写旧key
+        if (applicationContext instanceof WebApplicationContext) {
+            throw new IllegalStateException("Redis key迁移需要以spring.main.web-application-type=none离线执行");
+        }
+        int migrated = redisKeyMigrationService.migrateToClusterKeys();
+        logger.info("Redis key迁移结束，共迁移" + migrated + "个key，退出");
+        System.exit(SpringApplication.exit(applicationContext, () -> 0));
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.nowcoder.community.service;
+
+import com.nowcoder.community.dao.BroadcastNoticeMapper;
+import com.nowcoder.community.entity.BroadcastNotice;
+import com.nowcoder.community.util.CommunityConstant;
+import com.nowcoder.community.util.RedisKeyUtil;
+import com.nowcoder.community.util.SensitiveFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.HtmlUtils;
+
+import java.util.*;
+
+//全站公告：公告只保存一行，发布的代价与用户数无关
+//每个用户在Redis中保存已读到的公告id(水位)，未读数在读取时按最近的公告id计算
+@Service
+public class BroadcastService implements CommunityConstant {
+
+    //只让水位向前移动，返回移动前的水位
+    private static final RedisScript<Long> ADVANCE_SCRIPT = new DefaultRedisScript<>(
+            "local current = tonumber(redis.call('get', KEYS[1]) or '0') " +
+            "if tonumber(ARGV[1]) > current then redis.call('set', KEYS[1], ARGV[1]) end " +
+            "return current", Long.class);
+
+    //占位成员，区分"没有公告"和"缓存丢失"
+    private static final int PLACEHOLDER = 0;
+
+    @Autowired
+    private BroadcastNoticeMapper broadcastNoticeMapper;
+
+    @Autowired
+    private RedisTemplate redisTemplate;
+
+    @Autowired
+    private SensitiveFilter sensitiveFilter;
+
+    @Autowired
+    private PushService pushService;
+
+    //最多有多少条最近的公告计入未读，也是新用户第一次看到的公告数量上限
+    @Value("${community.broadcast.retain:20}")
+    private int retain;
+
+    //发布公告：一次insert和一次ZADD，再通知所有在线用户
+    public BroadcastNotice send(int fromId, String content) {
+        BroadcastNotice notice = new BroadcastNotice();
+        notice.setFromId(fromId);
+        notice.setContent(sensitiveFilter.filter(HtmlUtils.htmlEscape(content)));
+        notice.setStatus(0);
+        notice.setCreateTime(new Date());
+        broadcastNoticeMapper.insertBroadcastNotice(notice);
+
+        String idsKey = RedisKeyUtil.getBroadcastIdsKey();
+        if (!Boolean.TRUE.equals(redisTemplate.hasKey(idsKey))) {
+            rebuildIds();
+        }
+        redisTemplate.opsForZSet().add(idsKey, notice.getId(), notice.getId());
+        redisTemplate.opsForZSet().removeRangeByScore(idsKey, PLACEHOLDER + 1, notice.getId() - retain);
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("field", UnreadService.noticeField(TOPIC_BROADCAST));
+        data.put("delta", 1);
+        pushService.pushAll("unread", data);
+        return notice;
+    }
+
+    //某用户未读的公告数量，正常情况下是一次GET和一次ZCOUNT
+    public int findUnreadCount(int userId) {
+        String idsKey = RedisKeyUtil.getBroadcastIdsKey();
+        int readId = findReadId(userId);
+        Long count = redisTemplate.opsForZSet().count(idsKey, readId + 1, Double.POSITIVE_INFINITY);
+        if ((count == null || count == 0) && !Boolean.TRUE.equals(redisTemplate.hasKey(idsKey))) {
+            rebuildIds();
+            count = redisTemplate.opsForZSet().count(idsKey, readId + 1, Double.POSITIVE_INFINITY);
+        }
+        return count == null ? 0 : count.intValue();
+    }
+
+    //把最新的公告标记为已读，返回本次变为已读的数量，并推送未读数的变化
+    public int markRead(int userId) {
+        int unread = findUnreadCount(userId);
+        if (unread == 0) {
+            return 0;
+        }
+        Set<Object> latest = redisTemplate.opsForZSet().reverseRange(RedisKeyUtil.getBroadcastIdsKey(), 0, 0);
+        if (latest == null || latest.isEmpty()) {
+            return 0;
+        }
+        int latestId = ((Number) latest.iterator().next()).intValue();
+        redisTemplate.execute(ADVANCE_SCRIPT, RedisSerializer.string(), RedisSerializer.string(),
+                Collections.singletonList(RedisKeyUtil.getBroadcastReadKey(userId)), String.valueOf(latestId));
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("field", UnreadService.noticeField(TOPIC_BROADCAST));
+        data.put("delta", -unread);
+        pushService.push(userId, "unread", data);
+        return unread;
+    }
+
+    //游标分页查询公告
+    public List<BroadcastNotice> findBroadcastsBefore(Integer beforeId, int limit) {
+        return broadcastNoticeMapper.selectBroadcastNoticesBefore(beforeId, limit);
+    }
+
+    //通知列表页的公告一栏：最新公告、公告数量(最近retain条)和未读数量，没有公告时返回null
+    public Map<String, Object> findSummary(int userId) {
+        List<BroadcastNotice> latest = broadcastNoticeMapper.selectBroadcastNoticesBefore(null, 1);
+        if (latest.isEmpty()) {
+            return null;
+        }
+        Long size = redisTemplate.opsForZSet().zCard(RedisKeyUtil.getBroadcastIdsKey());
+        Map<String, Object> summary = new HashMap<>();
+        summary.put("message", latest.get(0));
+        summary.put("count", size == null || size == 0 ? 1 : size.intValue() - 1);
+        summary.put("unread", findUnreadCount(userId));
+        return summary;
+    }
+
+    private int findReadId(int userId) {
+        Object readId = redisTemplate.opsForValue().get(RedisKeyUtil.getBroadcastReadKey(userId));
+        return readId == null ? 0 : ((Number) readId).intValue();
+    }
+
+    //Redis中的公告列表丢失时从MySQL重建
+    private void rebuildIds() {
+        String idsKey = RedisKeyUtil.getBroadcastIdsKey();
+        redisTemplate.opsForZSet().add(idsKey, PLACEHOLDER, PLACEHOLDER);
+        for (Integer id : broadcastNoticeMapper.selectLatestBroadcastNoticeIds(retain)) {
+            redisTemplate.opsForZSet().add(idsKey, id, id);
+        }
+    }
+
+}
@@ -0,0 +1,337 @@
+package com.nowcoder.community.service;
+
+import com.alibaba.fastjson.JSONObject;
+import com.nowcoder.community.dao.DiscussPostMapper;
+import com.nowcoder.community.entity.DiscussPost;
+import com.nowcoder.community.util.RedisKeyUtil;
+import org.apache.ibatis.cursor.Cursor;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.GetAliasesResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    从MySQL重建帖子索引：
+    1. 新建一个带时间戳的索引，导入期间关闭刷新、不要副本
+    2. 按id区间切分discuss_post，多个线程各自用MyBatis游标流式读取一个区间，攒够一批用bulk写入
+    3. 全部区间完成后恢复刷新和副本，在一次_aliases请求中把别名从旧索引切换到新索引，再删除旧索引
+    重建期间增量索引仍写入别名(旧索引)，ElasticsearchService记下这些帖子id，切换别名前后各从MySQL补写一次到新索引
+    进度保存在Redis中，中断后再次执行时跳过已完成的区间，继续写入同一个新索引
+ */
+@Service
+@ConditionalOnProperty(name = "community.search.backend", havingValue = "elasticsearch")
+public class DiscussPostReindexService implements SearchReindexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiscussPostReindexService.class);
+
+    @Autowired
+    private DiscussPostMapper discussPostMapper;
+
+    @Qualifier("client")
+    @Autowired
+    private RestHighLevelClient restHighLevelClient;
+
+    @Autowired
+    private RedisTemplate redisTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    //搜索使用的别名，也是原来的索引名
+    @Value("${community.search.alias:discusspost}")
+    private String alias;
+
+    @Value("${community.search.analyzer:ik_max_word}")
+    private String analyzer;
+
+    @Value("${community.search.search-analyzer:ik_smart}")
+    private String searchAnalyzer;
+
+    @Value("${community.search.shards:6}")
+    private int shards;
+
+    @Value("${community.search.replicas:1}")
+    private int replicas;
+
+    @Value("${community.search.reindex.threads:4}")
+    private int threads;
+
+    //每个区间的id跨度，也是断点续建的粒度
+    @Value("${community.search.reindex.range-size:20000}")
+    private int rangeSize;
+
+    //每次bulk请求最多的文档数和字节数
+    @Value("${community.search.reindex.bulk-actions:1000}")
+    private int bulkActions;
+
+    @Value("${community.search.reindex.bulk-bytes:5242880}")
+    private long bulkBytes;
+
+    private TransactionTemplate readOnlyTemplate;
+
+    @PostConstruct
+    public void init() {
+        readOnlyTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTemplate.setReadOnly(true);
+    }
+
+    //重建索引，返回写入的文档数；任何一个区间失败都会中止，已完成的区间保留，下次执行时继续
+    @Override
+    public synchronized long reindex() throws Exception {
+        long start = System.currentTimeMillis();
+        String stateKey = RedisKeyUtil.getReindexKey(alias);
+        String doneKey = RedisKeyUtil.getReindexDoneKey(alias);
+        String changedKey = RedisKeyUtil.getReindexChangedKey(alias);
+
+        Map<Object, Object> state = redisTemplate.opsForHash().entries(stateKey);
+        String index = (String) state.get("index");
+        int minId;
+        int maxId;
+        int size;
+        if (index != null && indexExists(index)) {
+            minId = (Integer) state.get("minId");
+            maxId = (Integer) state.get("maxId");
+            size = (Integer) state.get("rangeSize");
+            logger.info("继续重建索引: " + index);
+        } else {
+            redisTemplate.delete(doneKey);
+            redisTemplate.delete(changedKey);
+            index = alias + "_" + new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
+            createIndex(index);
+            //只导入开始时已存在的帖子，之后新增的帖子在最后补齐
+            minId = discussPostMapper.selectMinId();
+            maxId = discussPostMapper.selectMaxId();
+            size = rangeSize;
+            Map<String, Object> map = new HashMap<>();
+            map.put("index", index);
+            map.put("minId", minId);
+            map.put("maxId", maxId);
+            map.put("rangeSize", size);
+            redisTemplate.opsForHash().putAll(stateKey, map);
+            logger.info("开始重建索引: " + index);
+        }
+
+        Set<Object> done = redisTemplate.opsForSet().members(doneKey);
+        List<int[]> ranges = new ArrayList<>();
+        for (int from = minId; from > 0 && from <= maxId; from += size) {
+            if (done == null || !done.contains(from)) {
+                ranges.add(new int[]{from, Math.min(from + size, maxId + 1)});
+            }
+        }
+
+        AtomicLong docs = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+        try {
+            String target = index;
+            List<Future<?>> futures = new ArrayList<>(ranges.size());
+            for (int[] range : ranges) {
+                futures.add(executor.submit(() -> {
+                    long count = indexRange(target, range[0], range[1]);
+                    redisTemplate.opsForSet().add(doneKey, range[0]);
+                    long total = docs.addAndGet(count);
+                    long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+                    logger.info(String.format("重建索引: 帖子id [%d, %d) 完成%d个, 累计%d个, %.0f docs/s",
+                            range[0], range[1], count, total, total * 1000.0 / elapsed));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        //补齐重建期间新增的帖子
+        int latestId = discussPostMapper.selectMaxId();
+        if (latestId > maxId) {
+            docs.addAndGet(indexRange(index, maxId + 1, latestId + 1));
+        }
+
+        //补写重建期间更新过的帖子，直到没有新的更新再切换别名；切换前写入旧索引的更新在切换后再补写一次
+        //进度key删除前ElasticsearchService一直在记录，删除后的写入直接进入新索引
+        docs.addAndGet(indexChanged(index, changedKey));
+        finish(index);
+        docs.addAndGet(indexChanged(index, changedKey));
+        redisTemplate.delete(stateKey);
+        redisTemplate.delete(doneKey);
+        redisTemplate.delete(changedKey);
+
+        long cost = Math.max(System.currentTimeMillis() - start, 1);
+        logger.info(String.format("重建索引完成: %s, %d个区间, %d个文档, 耗时%dms, %.0f docs/s",
+                index, ranges.size(), docs.get(), cost, docs.get() * 1000.0 / cost));
+        return docs.get();
+    }
+
+    //在只读事务中用游标遍历一个区间，攒够bulkActions个文档或bulkBytes字节写入一次
+    private long indexRange(String index, int fromId, int toId) {
+        Long count = readOnlyTemplate.execute(status -> {
+            long indexed = 0;
+            BulkRequest bulk = new BulkRequest();
+            try (Cursor<DiscussPost> cursor = discussPostMapper.selectDiscussPostsByIdRange(fromId, toId)) {
+                for (DiscussPost post : cursor) {
+                    bulk.add(new IndexRequest(index)
+                            .id(String.valueOf(post.getId()))
+                            .source(JSONObject.toJSONString(post), XContentType.JSON));
+                    if (bulk.numberOfActions() >= bulkActions || bulk.estimatedSizeInBytes() >= bulkBytes) {
+                        indexed += flush(bulk);
+                        bulk = new BulkRequest();
+                    }
+                }
+                if (bulk.numberOfActions() > 0) {
+                    indexed += flush(bulk);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("重建索引失败: 帖子id [" + fromId + ", " + toId + "), " + e.getMessage(), e);
+            }
+            return indexed;
+        });
+        return count == null ? 0 : count;
+    }
+
+    //取出记录的帖子id，从MySQL读取最新内容写入新索引，已删除(拉黑)的帖子从新索引中删除，返回写入的帖子数
+    private long indexChanged(String index, String changedKey) throws IOException {
+        long indexed = 0;
+        List<Object> popped;
+        while ((popped = redisTemplate.opsForSet().pop(changedKey, bulkActions)) != null && !popped.isEmpty()) {
+            List<Integer> ids = new ArrayList<>(popped.size());
+            for (Object id : popped) {
+                ids.add((Integer) id);
+            }
+            BulkRequest bulk = new BulkRequest();
+            for (DiscussPost post : discussPostMapper.selectDiscussPostsByIds(ids)) {
+                if (post.getStatus() == 2) {
+                    bulk.add(new DeleteRequest(index, String.valueOf(post.getId())));
+                } else {
+                    bulk.add(new IndexRequest(index)
+                            .id(String.valueOf(post.getId()))
+                            .source(JSONObject.toJSONString(post), XContentType.JSON));
+                }
+            }
+            if (bulk.numberOfActions() > 0) {
+                indexed += flush(bulk);
+            }
+        }
+        if (indexed > 0) {
+            logger.info("重建索引: 补写重建期间更新的帖子" + indexed + "个");
+        }
+        return indexed;
+    }
+
+    private int flush(BulkRequest bulk) throws IOException {
+        BulkResponse response = restHighLevelClient.bulk(bulk, RequestOptions.DEFAULT);
+        if (response.hasFailures()) {
+            throw new IOException(response.buildFailureMessage());
+        }
+        return bulk.numberOfActions();
+    }
+
+    //导入期间不刷新、不要副本，减少写入开销
+    private void createIndex(String index) throws IOException {
+        CreateIndexRequest request = new CreateIndexRequest(index);
+        request.settings(Settings.builder()
+                .put("index.number_of_shards", shards)
+                .put("index.number_of_replicas", 0)
+                .put("index.refresh_interval", "-1"));
+        request.mapping(mapping(), XContentType.JSON);
+        restHighLevelClient.indices().create(request, RequestOptions.DEFAULT);
+    }
+
+    //字段和原来DiscussPost上的注解一致
+    private String mapping() {
+        Map<String, Object> text = new HashMap<>();
+        text.put("type", "text");
+        text.put("analyzer", analyzer);
+        text.put("search_analyzer", searchAnalyzer);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("id", field("integer"));
+        properties.put("userId", field("integer"));
+        properties.put("title", text);
+        properties.put("content", text);
+        properties.put("type", field("integer"));
+        properties.put("status", field("integer"));
+        properties.put("createTime", field("date"));
+        properties.put("commentCount", field("integer"));
+        properties.put("score", field("double"));
+        Map<String, Object> mapping = new HashMap<>();
+        mapping.put("properties", properties);
+        return JSONObject.toJSONString(mapping);
+    }
+
+    private static Map<String, Object> field(String type) {
+        Map<String, Object> field = new HashMap<>();
+        field.put("type", type);
+        return field;
+    }
+
+    //恢复刷新和副本，原子地把别名切换到新索引，再删除旧索引
+    private void finish(String index) throws IOException {
+        restHighLevelClient.indices().putSettings(new UpdateSettingsRequest(index).settings(Settings.builder()
+                .put("index.number_of_replicas", replicas)
+                .put("index.refresh_interval", "1s")), RequestOptions.DEFAULT);
+        restHighLevelClient.indices().refresh(new RefreshRequest(index), RequestOptions.DEFAULT);
+
+        IndicesAliasesRequest request = new IndicesAliasesRequest();
+        List<String> oldIndices = new ArrayList<>();
+        GetAliasesResponse aliases = restHighLevelClient.indices().getAlias(
+                new GetAliasesRequest(alias), RequestOptions.DEFAULT);
+        for (String old : aliases.getAliases().keySet()) {
+            if (!old.equals(index)) {
+                request.addAliasAction(IndicesAliasesRequest.AliasActions.remove().index(old).alias(alias));
+                oldIndices.add(old);
+            }
+        }
+        //以前由DiscussPostRepository直接创建的同名索引，在同一个请求中删除
+        if (aliases.getAliases().isEmpty() && indexExists(alias)) {
+            request.addAliasAction(IndicesAliasesRequest.AliasActions.removeIndex().index(alias));
+        }
+        request.addAliasAction(IndicesAliasesRequest.AliasActions.add().index(index).alias(alias));
+        restHighLevelClient.indices().updateAliases(request, RequestOptions.DEFAULT);
+        logger.info("别名" + alias + "已切换到" + index);
+
+        for (String old : oldIndices) {
+            restHighLevelClient.indices().delete(new DeleteIndexRequest(old), RequestOptions.DEFAULT);
+        }
+    }
+
+    private boolean indexExists(String index) throws IOException {
+        return restHighLevelClient.indices().exists(new GetIndexRequest(index), RequestOptions.DEFAULT);
+    }
+
+}
@@ -1,88 +1,162 @@
-//package com.nowcoder.community.service;
-//
-//import com.alibaba.fastjson.JSONObject;
-//import com.nowcoder.community.dao.elasticsearch.DiscussPostRepository;
-//import com.nowcoder.community.entity.DiscussPost;
-//import org.elasticsearch.action.search.SearchRequest;
-//import org.elasticsearch.action.search.SearchResponse;
-//import org.elasticsearch.client.RequestOptions;
-//import org.elasticsearch.client.RestHighLevelClient;
-//import org.elasticsearch.index.query.QueryBuilders;
-//import org.elasticsearch.search.SearchHit;
-//import org.elasticsearch.search.builder.SearchSourceBuilder;
-//import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
-//import org.elasticsearch.search.fetch.subphase.highlight.HighlightField;
-//import org.elasticsearch.search.sort.SortBuilders;
-//import org.elasticsearch.search.sort.SortOrder;
-//import org.springframework.beans.factory.annotation.Autowired;
-//import org.springframework.beans.factory.annotation.Qualifier;
-//import org.springframework.data.domain.Page;
-//import org.springframework.stereotype.Service;
-//
-//import java.util.LinkedList;
-//import java.util.List;
-//
-//@Service
-//public class ElasticsearchService {
-//
-//    @Autowired
-//    private DiscussPostRepository discussPostRepository;
-//
-//    @Qualifier("client")
-//    @Autowired
-//    private RestHighLevelClient restHighLevelClient;
-//
-//    public void saveDiscussPost(DiscussPost post){
-//        discussPostRepository.save(post);
-//    }
-//
-//    public void deleteDiscussPost(int id){
-//        discussPostRepository.deleteById(id);
-//    }
-//
-//    public Page searchDiscussPost(String keyword, int current, int limit)throws Exception{
-//
-//        SearchRequest searchRequest = new SearchRequest("discusspost");//discusspost是索引名，就是表名
-//
-//        //高亮
-//        HighlightBuilder highlightBuilder = new HighlightBuilder();
-//        highlightBuilder.field("title");
-//        highlightBuilder.field("content");
-//        highlightBuilder.requireFieldMatch(false);
-//        highlightBuilder.preTags("<span style='color:red'>");
-//        highlightBuilder.postTags("</span>");
-//
-//        //构建搜索条件
-//        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
-//                .query(QueryBuilders.multiMatchQuery(keyword, "title", "content"))
-//                .sort(SortBuilders.fieldSort("type").order(SortOrder.DESC))
-//                .sort(SortBuilders.fieldSort("score").order(SortOrder.DESC))
-//                .sort(SortBuilders.fieldSort("createTime").order(SortOrder.DESC))
-//                .from(current)// 指定从哪条开始查询
-//                .size(limit)// 需要查出的总记录条数
-//                .highlighter(highlightBuilder);//高亮
-//
-//        searchRequest.source(searchSourceBuilder);
-//        SearchResponse searchResponse = restHighLevelClient.search(searchRequest, RequestOptions.DEFAULT);
-//
-//        List<DiscussPost> list = new LinkedList<>();
-//        for (SearchHit hit : searchResponse.getHits().getHits()) {
-//            DiscussPost discussPost = JSONObject.parseObject(hit.getSourceAsString(), DiscussPost.class);
-//
-//            // 处理高亮显示的结果
-//            HighlightField titleField = hit.getHighlightFields().get("title");
-//            if (titleField != null) {
-//                discussPost.setTitle(titleField.getFragments()[0].toString());
-//            }
-//            HighlightField contentField = hit.getHighlightFields().get("content");
-//            if (contentField != null) {
-//                discussPost.setContent(contentField.getFragments()[0].toString());
-//            }
-//            System.out.println(discussPost);
-//            list.add(discussPost);
-//        }
-//        return searchDiscussPost(keyword, current, limit);
-//                // new AggregatedPageImpl(list, pageable, searchResponse.getHits(),searchResponse.getAggregations(),
-//              //  searchResponse.getScrollId(),searchResponse.getHits().getMaxScore());
-//    }
-//}
+package com.nowcoder.community.service;
+
+import com.alibaba.fastjson.JSONObject;
+import com.nowcoder.community.entity.DiscussPost;
+import com.nowcoder.community.util.RedisKeyUtil;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightField;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+//Elasticsearch实现，读写都通过别名，重建索引(DiscussPostReindexService)切换别名后不用改这里
+//重建期间写入的帖子id记录在Redis中，由重建补写到新索引
+@Service
+@ConditionalOnProperty(name = "community.search.backend", havingValue = "elasticsearch")
+public class ElasticsearchService implements SearchService {
+
+    @Qualifier("client")
+    @Autowired
+    private RestHighLevelClient restHighLevelClient;
+
+    @Autowired
+    private RedisTemplate redisTemplate;
+
+    @Value("${community.search.alias:discusspost}")
+    private String alias;
+
+    @Override
+    public void saveDiscussPost(DiscussPost post) {
+        recordChanged(Collections.singletonList(post.getId()));
+        try {
+            restHighLevelClient.index(indexRequest(post), RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new IllegalStateException("写入帖子索引失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void saveDiscussPosts(List<DiscussPost> posts) {
+        if (posts.isEmpty()) {
+            return;
+        }
+        List<Integer> ids = new ArrayList<>(posts.size());
+        for (DiscussPost post : posts) {
+            ids.add(post.getId());
+        }
+        recordChanged(ids);
+        //等到下一次刷新(index.refresh_interval)后返回，返回后就能搜到
+        BulkRequest bulk = new BulkRequest().setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL);
+        for (DiscussPost post : posts) {
+            bulk.add(indexRequest(post));
+        }
+        try {
+            BulkResponse response = restHighLevelClient.bulk(bulk, RequestOptions.DEFAULT);
+            if (response.hasFailures()) {
+                throw new IllegalStateException("批量写入帖子索引失败: " + response.buildFailureMessage());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("批量写入帖子索引失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void deleteDiscussPost(int id) {
+        recordChanged(Collections.singletonList(id));
+        try {
+            restHighLevelClient.delete(new DeleteRequest(alias, String.valueOf(id)), RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new IllegalStateException("删除帖子索引失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Page<DiscussPost> searchDiscussPost(String keyword, int current, int limit) {
+        SearchRequest searchRequest = new SearchRequest(alias);
+
+        //高亮
+        HighlightBuilder highlightBuilder = new HighlightBuilder();
+        highlightBuilder.field("title");
+        highlightBuilder.field("content");
+        highlightBuilder.requireFieldMatch(false);
+        highlightBuilder.preTags("<span style='color:red'>");
+        highlightBuilder.postTags("</span>");
+
+        //构建搜索条件
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                .query(QueryBuilders.multiMatchQuery(keyword, "title", "content"))
+                .sort(SortBuilders.fieldSort("type").order(SortOrder.DESC))
+                .sort(SortBuilders.fieldSort("score").order(SortOrder.DESC))
+                .sort(SortBuilders.fieldSort("createTime").order(SortOrder.DESC))
+                .from(current * limit)// 指定从哪条开始查询
+                .size(limit)// 每页的记录数
+                .trackTotalHits(true)
+                .highlighter(highlightBuilder);//高亮
+
+        searchRequest.source(searchSourceBuilder);
+        SearchResponse searchResponse;
+        try {
+            searchResponse = restHighLevelClient.search(searchRequest, RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new IllegalStateException("搜索帖子失败: " + e.getMessage(), e);
+        }
+
+        List<DiscussPost> list = new ArrayList<>();
+        for (SearchHit hit : searchResponse.getHits().getHits()) {
+            DiscussPost discussPost = JSONObject.parseObject(hit.getSourceAsString(), DiscussPost.class);
+
+            // 处理高亮显示的结果
+            HighlightField titleField = hit.getHighlightFields().get("title");
+            if (titleField != null) {
+                discussPost.setTitle(titleField.getFragments()[0].toString());
+            }
+            HighlightField contentField = hit.getHighlightFields().get("content");
+            if (contentField != null) {
+                discussPost.setContent(contentField.getFragments()[0].toString());
+            }
+            list.add(discussPost);
+        }
+        return new PageImpl<>(list, PageRequest.of(current, limit), searchResponse.getHits().getTotalHits().value);
+    }
+
+    //重建索引期间(进度key存在)，别名还指向旧索引，写入前记下帖子id，由DiscussPostReindexService切换别名前后补写到新索引
+    //先记录再写入：写入失败时多补写一次没有影响
+    private void recordChanged(List<Integer> ids) {
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(RedisKeyUtil.getReindexKey(alias)))) {
+            redisTemplate.opsForSet().add(RedisKeyUtil.getReindexChangedKey(alias), ids.toArray());
+        }
+    }
+
+    private IndexRequest indexRequest(DiscussPost post) {
+        return new IndexRequest(alias)
+                .id(String.valueOf(post.getId()))
+                .source(JSONObject.toJSONString(post), XContentType.JSON);
+    }
+
+}
@@ -0,0 +1,213 @@
+package com.nowcoder.community.service;
+
+import com.nowcoder.community.dao.UserMapper;
+import com.nowcoder.community.util.CommunityConstant;
+import com.nowcoder.community.util.RedisKeyUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+//"可能认识的人"：离线计算二度关注（关注的人所关注的人），按共同关注数排序取前K个存入Redis
+@Service
+public class FollowRecommendService implements CommunityConstant {
+
+    private static final Logger logger = LoggerFactory.getLogger(FollowRecommendService.class);
+
+    @Autowired
+    private RedisTemplate redisTemplate;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    //每个用户保存的推荐数量
+    @Value("${community.recommend.follow.top-k:20}")
+    private int topK;
+
+    //每个用户最多展开的关注数，避免大V拖慢任务
+    @Value("${community.recommend.follow.max-fanout:500}")
+    private int maxFanout;
+
+    //fork-join拆分到多少个用户以内直接计算
+    @Value("${community.recommend.follow.range-size:256}")
+    private int rangeSize;
+
+    @Value("${community.recommend.follow.parallelism:4}")
+    private int parallelism;
+
+    //计算推荐，首次全量计算，之后只重新计算关注关系发生变化的用户，返回处理的用户数
+    public synchronized int refreshRecommendations() {
+        long start = System.currentTimeMillis();
+        boolean full = !Boolean.TRUE.equals(redisTemplate.hasKey(RedisKeyUtil.getFollowRecommendLastRunKey()));
+
+        //先取快照，并立即从集合中移除读到的用户(SREM，不删除整个集合)：
+        //任务执行期间新发生的变化，包括快照中的用户再次变化，都留在集合中给下一次；任务失败时把快照加回去
+        String changedKey = RedisKeyUtil.getFollowChangedKey();
+        Set<Integer> changed = redisTemplate.opsForSet().members(changedKey);
+        if (changed != null && !changed.isEmpty()) {
+            redisTemplate.opsForSet().remove(changedKey, changed.toArray());
+        }
+
+        int processed;
+        try {
+            int[] userIds = full ? null : toArray(expandChanged(changed));
+            int total = full ? userMapper.selectMaxId() : userIds.length;
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                processed = pool.invoke(new RecommendTask(userIds, 0, total));
+            } finally {
+                pool.shutdown();
+            }
+        } catch (RuntimeException e) {
+            if (changed != null && !changed.isEmpty()) {
+                redisTemplate.opsForSet().add(changedKey, changed.toArray());
+            }
+            throw e;
+        }
+
+        redisTemplate.opsForValue().set(RedisKeyUtil.getFollowRecommendLastRunKey(), start);
+
+        long cost = Math.max(System.currentTimeMillis() - start, 1);
+        logger.info(String.format("关注推荐计算完成[%s]: 用户%d个, 耗时%dms, 吞吐%.1f用户/秒",
+                full ? "全量" : "增量", processed, cost, processed * 1000.0 / cost));
+        return processed;
+    }
+
+    //某用户的关注发生变化，会影响他自己以及所有关注他的人的二度关注
+    private Set<Integer> expandChanged(Set<Integer> changed) {
+        Set<Integer> dirty = new HashSet<>();
+        if (changed == null) {
+            return dirty;
+        }
+        for (Integer userId : changed) {
+            dirty.add(userId);
+            Set<Integer> followers = redisTemplate.opsForZSet().range(
+                    RedisKeyUtil.getFollowerKey(ENTITY_TYPE_USER, userId), 0, -1);
+            if (followers != null) {
+                dirty.addAll(followers);
+            }
+        }
+        return dirty;
+    }
+
+    private int[] toArray(Set<Integer> ids) {
+        int[] array = new int[ids.size()];
+        int i = 0;
+        for (Integer id : ids) {
+            array[i++] = id;
+        }
+        return array;
+    }
+
+    //ids为null时按用户id区间[from+1, to]遍历，否则遍历ids[from, to)
+    private class RecommendTask extends RecursiveTask<Integer> {
+
+        private final int[] ids;
+        private final int from;
+        private final int to;
+
+        RecommendTask(int[] ids, int from, int to) {
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= rangeSize) {
+                int count = 0;
+                for (int i = from; i < to; i++) {
+                    recommendFor(ids == null ? i + 1 : ids[i]);
+                    count++;
+                }
+                return count;
+            }
+            int mid = (from + to) >>> 1;
+            RecommendTask left = new RecommendTask(ids, from, mid);
+            RecommendTask right = new RecommendTask(ids, mid, to);
+            left.fork();
+            return right.compute() + left.join();
+        }
+    }
+
+    private void recommendFor(int userId) {
+        String recommendKey = RedisKeyUtil.getFollowRecommendKey(userId);
+        String followeeKey = RedisKeyUtil.getFolloweeKey(userId, ENTITY_TYPE_USER);
+        Set<Integer> followees = redisTemplate.opsForZSet().reverseRange(followeeKey, 0, maxFanout - 1);
+        if (followees == null || followees.isEmpty()) {
+            redisTemplate.delete(recommendKey);
+            return;
+        }
+        //只展开最近的maxFanout个关注，但排除已关注的人时要用全部关注
+        Set<Integer> followed = followees;
+        if (followees.size() >= maxFanout) {
+            Set<Integer> all = redisTemplate.opsForZSet().range(followeeKey, 0, -1);
+            if (all != null) {
+                followed = new HashSet<>(all);
+            }
+        }
+
+        //一次往返读取所有关注者的关注列表
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback() {
+            @Override
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for (Integer followeeId : followees) {
+                    operations.opsForZSet().reverseRange(
+                            RedisKeyUtil.getFolloweeKey(followeeId, ENTITY_TYPE_USER), 0, maxFanout - 1);
+                }
+                return null;
+            }
+        });
+
+        //统计共同关注数
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (Object result : results) {
+            if (result == null) {
+                continue;
+            }
+            for (Object candidate : (Set<Object>) result) {
+                Integer candidateId = (Integer) candidate;
+                if (candidateId != userId && !followed.contains(candidateId)) {
+                    counts.merge(candidateId, 1, Integer::sum);
+                }
+            }
+        }
+
+        //大小为K的小顶堆，保留共同关注数最多的K个
+        PriorityQueue<Map.Entry<Integer, Integer>> heap = new PriorityQueue<>(topK + 1,
+                Map.Entry.<Integer, Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+        for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+            heap.offer(entry);
+            if (heap.size() > topK) {
+                heap.poll();
+            }
+        }
+
+        Set<ZSetOperations.TypedTuple<Object>> tuples = new HashSet<>();
+        for (Map.Entry<Integer, Integer> entry : heap) {
+            tuples.add(new DefaultTypedTuple<>(entry.getKey(), entry.getValue().doubleValue()));
+        }
+        redisTemplate.executePipelined(new SessionCallback() {
+            @Override
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                operations.delete(recommendKey);
+                if (!tuples.isEmpty()) {
+                    operations.opsForZSet().add(recommendKey, tuples);
+                }
+                return null;
+            }
+        });
+    }
+
+}
@@ -4,13 +4,18 @@ import com.nowcoder.community.entity.User;
 import com.nowcoder.community.util.CommunityConstant;
 import com.nowcoder.community.util.RedisKeyUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.DefaultTypedTuple;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class FollowService implements CommunityConstant {
@@ -21,38 +26,95 @@ public class FollowService implements CommunityConstant {
     @Autowired
     private  UserService userService;
 
+    //共同关注结果的缓存时间
+    @Value("${community.follow.mutual-cache-seconds:60}")
+    private int mutualCacheSeconds;
+
+    //缓存中表示"交集为空"的占位成员，分数为0，查询时按分数过滤掉
+    private static final int MUTUAL_PLACEHOLDER = 0;
+
     public void follow(int userId, int entityType, int entityId){
-        redisTemplate.execute(new SessionCallback() {
-            @Override
-            public Object execute(RedisOperations operations) throws DataAccessException {
-                String followeeKey = RedisKeyUtil.getFolloweeKey(userId,entityType);
-                String followerKey = RedisKeyUtil.getFollowerKey(entityType, entityId);
+        if(RedisKeyUtil.isClusterMode()){
+            followInCluster(userId, entityType, entityId);
+        }else{
+            redisTemplate.execute(new SessionCallback() {
+                @Override
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    String followeeKey = RedisKeyUtil.getFolloweeKey(userId,entityType);
+                    String followerKey = RedisKeyUtil.getFollowerKey(entityType, entityId);
 
-                operations.multi();
+                    operations.multi();
 
-                operations.opsForZSet().add(followeeKey,entityId,System.currentTimeMillis());
-                operations.opsForZSet().add(followerKey,userId,System.currentTimeMillis());
+                    operations.opsForZSet().add(followeeKey,entityId,System.currentTimeMillis());
+                    operations.opsForZSet().add(followerKey,userId,System.currentTimeMillis());
 
-                return operations.exec();
-            }
-        });
+                    return operations.exec();
+                }
+            });
+        }
+        markFollowChanged(userId, entityType);
     }
 
     public void unfollow(int userId, int entityType, int entityId){
-        redisTemplate.execute(new SessionCallback() {
-            @Override
-            public Object execute(RedisOperations operations) throws DataAccessException {
-                String followeeKey = RedisKeyUtil.getFolloweeKey(userId,entityType);
-                String followerKey = RedisKeyUtil.getFollowerKey(entityType, entityId);
+        if(RedisKeyUtil.isClusterMode()){
+            unfollowInCluster(userId, entityType, entityId);
+        }else{
+            redisTemplate.execute(new SessionCallback() {
+                @Override
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    String followeeKey = RedisKeyUtil.getFolloweeKey(userId,entityType);
+                    String followerKey = RedisKeyUtil.getFollowerKey(entityType, entityId);
 
-                operations.multi();
+                    operations.multi();
 
-                operations.opsForZSet().remove(followeeKey,entityId);
-                operations.opsForZSet().remove(followerKey,userId);
+                    operations.opsForZSet().remove(followeeKey,entityId);
+                    operations.opsForZSet().remove(followerKey,userId);
 
-                return operations.exec();
+                    return operations.exec();
+                }
+            });
+        }
+        markFollowChanged(userId, entityType);
+    }
+
+    //记录关注关系发生变化的用户，推荐任务只重新计算这些用户
+    private void markFollowChanged(int userId, int entityType){
+        if(entityType == ENTITY_TYPE_USER){
+            redisTemplate.opsForSet().add(RedisKeyUtil.getFollowChangedKey(), userId);
+        }
+    }
+
+    //集群模式下followee和follower不在同一个slot，无法MULTI，分两步写入，第二步失败时撤销第一步
+    private void followInCluster(int userId, int entityType, int entityId){
+        String followeeKey = RedisKeyUtil.getFolloweeKey(userId, entityType);
+        String followerKey = RedisKeyUtil.getFollowerKey(entityType, entityId);
+        long now = System.currentTimeMillis();
+
+        Boolean added = redisTemplate.opsForZSet().add(followeeKey, entityId, now);
+        try {
+            redisTemplate.opsForZSet().add(followerKey, userId, now);
+        } catch (RuntimeException e) {
+            if (Boolean.TRUE.equals(added)) {
+                redisTemplate.opsForZSet().remove(followeeKey, entityId);
             }
-        });
+            throw e;
+        }
+    }
+
+    private void unfollowInCluster(int userId, int entityType, int entityId){
+        String followeeKey = RedisKeyUtil.getFolloweeKey(userId, entityType);
+        String followerKey = RedisKeyUtil.getFollowerKey(entityType, entityId);
+
+        Double followTime = redisTemplate.opsForZSet().score(followeeKey, entityId);
+        redisTemplate.opsForZSet().remove(followeeKey, entityId);
+        try {
+            redisTemplate.opsForZSet().remove(followerKey, userId);
+        } catch (RuntimeException e) {
+            if (followTime != null) {
+                redisTemplate.opsForZSet().add(followeeKey, entityId, followTime);
+            }
+            throw e;
+        }
     }
 
     //查询某用户关注的实体的数量
@@ -113,4 +175,116 @@ public class FollowService implements CommunityConstant {
 
     }
 
+    //查询为某用户推荐的关注（由FollowRecommendService离线计算）
+    public List<User> findRecommendUsers(int userId, int limit){
+        String recommendKey = RedisKeyUtil.getFollowRecommendKey(userId);
+        Set<Integer> targetIds = redisTemplate.opsForZSet().reverseRange(recommendKey, 0, limit - 1);
+        List<User> list = new ArrayList<>();
+        if(targetIds == null){
+            return list;
+        }
+        for(Integer targetId : targetIds){
+            User user = userService.findUserById(targetId);
+            if(user != null){
+                list.add(user);
+            }
+        }
+        return list;
+    }
+
+    //为列表中的每个用户标记当前用户是否已关注TA(hasFollowed)、TA是否关注了当前用户(followsYou)
+    //两个key都属于当前用户，一次pipeline完成
+    public void markFollowStatus(int viewerId, List<Map<String, Object>> userList){
+        if(userList == null || userList.isEmpty()){
+            return;
+        }
+        String followeeKey = RedisKeyUtil.getFolloweeKey(viewerId, ENTITY_TYPE_USER);
+        String followerKey = RedisKeyUtil.getFollowerKey(ENTITY_TYPE_USER, viewerId);
+        List<Object> scores = redisTemplate.executePipelined(new SessionCallback() {
+            @Override
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for(Map<String, Object> map : userList){
+                    int targetId = ((User) map.get("user")).getId();
+                    operations.opsForZSet().score(followeeKey, targetId);
+                    operations.opsForZSet().score(followerKey, targetId);
+                }
+                return null;
+            }
+        });
+        for(int i = 0; i < userList.size(); i++){
+            userList.get(i).put("hasFollowed", scores.get(2 * i) != null);
+            userList.get(i).put("followsYou", scores.get(2 * i + 1) != null);
+        }
+    }
+
+    //查询viewer关注的人中，有多少人也关注了target
+    public long findMutualFollowerCount(int viewerId, int targetId){
+        String mutualKey = loadMutualFollowers(viewerId, targetId);
+        Long count = redisTemplate.opsForZSet().count(mutualKey, 1, Double.MAX_VALUE);
+        return count == null ? 0 : count;
+    }
+
+    //查询viewer关注的人中，也关注了target的人(按viewer关注他们的时间倒序)
+    public List<User> findMutualFollowers(int viewerId, int targetId, int limit){
+        String mutualKey = loadMutualFollowers(viewerId, targetId);
+        Set<Integer> ids = redisTemplate.opsForZSet().reverseRangeByScore(mutualKey, 1, Double.MAX_VALUE, 0, limit);
+        List<User> list = new ArrayList<>();
+        if(ids != null){
+            for(Integer id : ids){
+                list.add(userService.findUserById(id));
+            }
+        }
+        return list;
+    }
+
+    //计算交集并缓存，返回缓存的key
+    private String loadMutualFollowers(int viewerId, int targetId){
+        String mutualKey = RedisKeyUtil.getFollowMutualKey(viewerId, targetId);
+        if(Boolean.TRUE.equals(redisTemplate.hasKey(mutualKey))){
+            return mutualKey;
+        }
+        String followeeKey = RedisKeyUtil.getFolloweeKey(viewerId, ENTITY_TYPE_USER);
+        String followerKey = RedisKeyUtil.getFollowerKey(ENTITY_TYPE_USER, targetId);
+
+        if(RedisKeyUtil.isClusterMode()){
+            //集群模式下两个集合不在同一个slot，无法ZINTERSTORE，改为在target的粉丝集合上pipeline查分数
+            Set<ZSetOperations.TypedTuple<Integer>> followees =
+                    redisTemplate.opsForZSet().rangeWithScores(followeeKey, 0, -1);
+            List<ZSetOperations.TypedTuple<Integer>> candidates = followees == null
+                    ? new ArrayList<>() : new ArrayList<>(followees);
+            List<Object> scores = redisTemplate.executePipelined(new SessionCallback() {
+                @Override
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    for(ZSetOperations.TypedTuple<Integer> candidate : candidates){
+                        operations.opsForZSet().score(followerKey, candidate.getValue());
+                    }
+                    return null;
+                }
+            });
+            Set<ZSetOperations.TypedTuple<Object>> mutual = new HashSet<>();
+            mutual.add(new DefaultTypedTuple<>(MUTUAL_PLACEHOLDER, 0.0));
+            for(int i = 0; i < candidates.size(); i++){
+                if(scores.get(i) != null){
+                    mutual.add(new DefaultTypedTuple<>(candidates.get(i).getValue(), candidates.get(i).getScore()));
+                }
+            }
+            redisTemplate.opsForZSet().add(mutualKey, mutual);
+            redisTemplate.expire(mutualKey, mutualCacheSeconds, TimeUnit.SECONDS);
+            return mutualKey;
+        }
+
+        redisTemplate.executePipelined(new SessionCallback() {
+            @Override
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                //权重1和0：结果的分数即为viewer关注此人的时间
+                operations.opsForZSet().intersectAndStore(followeeKey, Collections.singleton(followerKey), mutualKey,
+                        RedisZSetCommands.Aggregate.SUM, RedisZSetCommands.Weights.of(1, 0));
+                operations.opsForZSet().add(mutualKey, MUTUAL_PLACEHOLDER, 0);
+                operations.expire(mutualKey, mutualCacheSeconds, TimeUnit.SECONDS);
+                return null;
+            }
+        });
+        return mutualKey;
+    }
+
 }
@@ -16,6 +16,10 @@ public class LikeService {
 
     //点赞
     public void like(int userId, int entityType, int entityId, int entityUserId){
+        if(RedisKeyUtil.isClusterMode()){
+            likeInCluster(userId, entityType, entityId, entityUserId);
+            return;
+        }
         redisTemplate.execute(new SessionCallback() {
             @Override
             public Object execute(RedisOperations operations) throws DataAccessException {
@@ -39,6 +43,35 @@ public class LikeService {
         });
     }
 
+    //集群模式下两个key不在同一个slot，先以SADD/SREM的返回值判断状态是否真的改变，再更新用户的赞，失败时撤销
+    private void likeInCluster(int userId, int entityType, int entityId, int entityUserId){
+        String entityLikeKey = RedisKeyUtil.getEntityLikeKey(entityType, entityId);
+        String userLikeKey = RedisKeyUtil.getUserLikeKey(entityUserId);
+
+        Long removed = redisTemplate.opsForSet().remove(entityLikeKey, userId);
+        boolean isMember = removed != null && removed > 0;
+        if(!isMember){
+            Long added = redisTemplate.opsForSet().add(entityLikeKey, userId);
+            if(added == null || added == 0){
+                return;//并发的重复点赞，状态未改变
+            }
+        }
+        try {
+            if(isMember){
+                redisTemplate.opsForValue().decrement(userLikeKey);
+            }else{
+                redisTemplate.opsForValue().increment(userLikeKey);
+            }
+        } catch (RuntimeException e) {
+            if(isMember){
+                redisTemplate.opsForSet().add(entityLikeKey, userId);
+            }else{
+                redisTemplate.opsForSet().remove(entityLikeKey, userId);
+            }
+            throw e;
+        }
+    }
+
     //查询某实体点赞数量
     public long findEntityLikeCount(int entityType, int entityId){
         String entityLikeKey = RedisKeyUtil.getEntityLikeKey(entityType, entityId);
@@ -0,0 +1,95 @@
+package com.nowcoder.community.service;
+
+import com.nowcoder.community.dao.DiscussPostMapper;
+import com.nowcoder.community.entity.DiscussPost;
+import org.apache.ibatis.cursor.Cursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    从MySQL重建本节点的Lucene索引：按id区间用MyBatis游标流式读取，攒够一批通过SearchService批量写入
+    按帖子id覆盖写入，不清空原来的索引，重建期间仍然可以搜索；增量索引同时写入时总是写入MySQL中的最新内容
+    Lucene的索引在每个节点本地，新节点(或索引目录丢失的节点)以community.search.reindex.enabled=true启动一次
+ */
+@Service
+@ConditionalOnProperty(name = "community.search.backend", havingValue = "lucene")
+public class LuceneReindexService implements SearchReindexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LuceneReindexService.class);
+
+    @Autowired
+    private DiscussPostMapper discussPostMapper;
+
+    @Autowired
+    private LuceneSearchService luceneSearchService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${community.search.reindex.range-size:20000}")
+    private int rangeSize;
+
+    //每次写入的帖子数
+    @Value("${community.search.reindex.bulk-actions:1000}")
+    private int bulkActions;
+
+    private TransactionTemplate readOnlyTemplate;
+
+    @PostConstruct
+    public void init() {
+        readOnlyTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTemplate.setReadOnly(true);
+    }
+
+    @Override
+    public synchronized long reindex() {
+        long start = System.currentTimeMillis();
+        long docs = 0;
+        int minId = discussPostMapper.selectMinId();
+        //包括重建期间新增的帖子
+        for (int from = minId; from > 0 && from <= discussPostMapper.selectMaxId(); from += rangeSize) {
+            docs += indexRange(from, from + rangeSize);
+        }
+        luceneSearchService.commit();
+
+        long cost = Math.max(System.currentTimeMillis() - start, 1);
+        logger.info(String.format("重建Lucene索引完成: %d个文档, 耗时%dms, %.0f docs/s", docs, cost, docs * 1000.0 / cost));
+        return docs;
+    }
+
+    //在只读事务中用游标遍历一个区间，每bulkActions个帖子写入一次
+    private long indexRange(int fromId, int toId) {
+        Long count = readOnlyTemplate.execute(status -> {
+            long indexed = 0;
+            List<DiscussPost> batch = new ArrayList<>(bulkActions);
+            try (Cursor<DiscussPost> cursor = discussPostMapper.selectDiscussPostsByIdRange(fromId, toId)) {
+                for (DiscussPost post : cursor) {
+                    batch.add(post);
+                    if (batch.size() >= bulkActions) {
+                        luceneSearchService.saveDiscussPosts(batch);
+                        indexed += batch.size();
+                        batch = new ArrayList<>(bulkActions);
+                    }
+                }
+                luceneSearchService.saveDiscussPosts(batch);
+                indexed += batch.size();
+            } catch (IOException e) {
+                throw new IllegalStateException("重建索引失败: 帖子id [" + fromId + ", " + toId + "), " + e.getMessage(), e);
+            }
+            return indexed;
+        });
+        return count == null ? 0 : count;
+    }
+
+}
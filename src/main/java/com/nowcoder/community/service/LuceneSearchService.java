@@ -0,0 +1,235 @@
+package com.nowcoder.community.service;
+
+import com.nowcoder.community.entity.DiscussPost;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.cjk.CJKAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleDocValuesField;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.highlight.Highlighter;
+import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/*
+    内嵌的Lucene实现，不需要Elasticsearch集群：
+    索引保存在本地磁盘，用MMapDirectory映射到内存读取；中文用CJKAnalyzer按二元组切分
+    每次写入后由SearcherManager重新打开searcher，方法返回后就能搜到，不等提交(近实时)；定时提交，关闭时再提交一次
+    批量写入只重新打开一次，增量索引(SearchIndexer)合并更新后批量写入，控制重新打开的频率
+    查询、排序、高亮和ElasticsearchService一致
+ */
+@Service
+@ConditionalOnProperty(name = "community.search.backend", havingValue = "lucene")
+public class LuceneSearchService implements SearchService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LuceneSearchService.class);
+
+    private static final String[] SEARCH_FIELDS = {"title", "content"};
+
+    private static final Sort SORT = new Sort(
+            new SortField("type", SortField.Type.INT, true),
+            new SortField("score", SortField.Type.DOUBLE, true),
+            new SortField("createTime", SortField.Type.LONG, true));
+
+    //索引目录，每个节点一份，由各自的增量索引(独立的消费组)更新，新节点先重建索引(LuceneReindexService)
+    @Value("${community.search.lucene.path:data/lucene/discusspost}")
+    private String path;
+
+    private Directory directory;
+    private Analyzer analyzer;
+    private IndexWriter indexWriter;
+    private SearcherManager searcherManager;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Path dir = Paths.get(path);
+        Files.createDirectories(dir);
+        directory = new MMapDirectory(dir);
+        analyzer = new CJKAnalyzer();
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        indexWriter = new IndexWriter(directory, config);
+        searcherManager = new SearcherManager(indexWriter, null);
+        logger.info("打开Lucene索引: " + dir.toAbsolutePath() + ", 帖子" + indexWriter.getDocStats().numDocs + "个");
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        searcherManager.close();
+        indexWriter.close();
+        directory.close();
+    }
+
+    @Override
+    public void saveDiscussPost(DiscussPost post) {
+        try {
+            indexWriter.updateDocument(new Term("id", String.valueOf(post.getId())), toDocument(post));
+            searcherManager.maybeRefreshBlocking();
+        } catch (IOException e) {
+            throw new IllegalStateException("写入帖子索引失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void saveDiscussPosts(List<DiscussPost> posts) {
+        if (posts.isEmpty()) {
+            return;
+        }
+        try {
+            for (DiscussPost post : posts) {
+                indexWriter.updateDocument(new Term("id", String.valueOf(post.getId())), toDocument(post));
+            }
+            searcherManager.maybeRefreshBlocking();
+        } catch (IOException e) {
+            throw new IllegalStateException("批量写入帖子索引失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void deleteDiscussPost(int id) {
+        try {
+            indexWriter.deleteDocuments(new Term("id", String.valueOf(id)));
+            searcherManager.maybeRefreshBlocking();
+        } catch (IOException e) {
+            throw new IllegalStateException("删除帖子索引失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Page<DiscussPost> searchDiscussPost(String keyword, int current, int limit) {
+        PageRequest pageable = PageRequest.of(current, limit);
+        Query query;
+        try {
+            //关键词按普通文本处理，不解析查询语法
+            MultiFieldQueryParser parser = new MultiFieldQueryParser(SEARCH_FIELDS, analyzer);
+            query = parser.parse(QueryParser.escape(keyword));
+        } catch (ParseException e) {
+            return new PageImpl<>(new ArrayList<>(), pageable, 0);
+        }
+
+        IndexSearcher searcher;
+        try {
+            searcher = searcherManager.acquire();
+        } catch (IOException e) {
+            throw new IllegalStateException("搜索帖子失败: " + e.getMessage(), e);
+        }
+        try {
+            int from = current * limit;
+            //统计精确的命中数，分页需要
+            TopFieldCollector collector = TopFieldCollector.create(SORT, from + limit, Integer.MAX_VALUE);
+            searcher.search(query, collector);
+            TopDocs topDocs = collector.topDocs(from, limit);
+
+            //高亮：两个字段都用整个查询的词，和ES的requireFieldMatch(false)一致
+            Highlighter highlighter = new Highlighter(
+                    new SimpleHTMLFormatter("<span style='color:red'>", "</span>"), new QueryScorer(query));
+            List<DiscussPost> list = new ArrayList<>(topDocs.scoreDocs.length);
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                DiscussPost post = toDiscussPost(searcher.doc(scoreDoc.doc));
+                String title = highlighter.getBestFragment(analyzer, "title", post.getTitle());
+                if (title != null) {
+                    post.setTitle(title);
+                }
+                String content = highlighter.getBestFragment(analyzer, "content", post.getContent());
+                if (content != null) {
+                    post.setContent(content);
+                }
+                list.add(post);
+            }
+            return new PageImpl<>(list, pageable, topDocs.totalHits.value);
+        } catch (IOException | InvalidTokenOffsetsException e) {
+            throw new IllegalStateException("搜索帖子失败: " + e.getMessage(), e);
+        } finally {
+            try {
+                searcherManager.release(searcher);
+            } catch (IOException e) {
+                logger.error("释放searcher失败: " + e.getMessage());
+            }
+        }
+    }
+
+    //写入的内容在searcher重新打开后就能搜到，提交只是为了落盘，重启后不丢失
+    @Scheduled(fixedDelayString = "${community.search.lucene.commit-millis:60000}")
+    public void commit() {
+        try {
+            if (indexWriter.hasUncommittedChanges()) {
+                indexWriter.commit();
+            }
+        } catch (IOException e) {
+            logger.error("提交Lucene索引失败: " + e.getMessage(), e);
+        }
+    }
+
+    //排序字段同时保存DocValues(排序用)和原值(取回用)
+    private static Document toDocument(DiscussPost post) {
+        Document doc = new Document();
+        doc.add(new StringField("id", String.valueOf(post.getId()), Field.Store.YES));
+        doc.add(new StoredField("userId", post.getUserId()));
+        doc.add(new TextField("title", post.getTitle() == null ? "" : post.getTitle(), Field.Store.YES));
+        doc.add(new TextField("content", post.getContent() == null ? "" : post.getContent(), Field.Store.YES));
+        doc.add(new NumericDocValuesField("type", post.getType()));
+        doc.add(new StoredField("type", post.getType()));
+        doc.add(new StoredField("status", post.getStatus()));
+        long createTime = post.getCreateTime() == null ? 0 : post.getCreateTime().getTime();
+        doc.add(new NumericDocValuesField("createTime", createTime));
+        doc.add(new StoredField("createTime", createTime));
+        doc.add(new StoredField("commentCount", post.getCommentCount()));
+        doc.add(new DoubleDocValuesField("score", post.getScore()));
+        doc.add(new StoredField("score", post.getScore()));
+        return doc;
+    }
+
+    private static DiscussPost toDiscussPost(Document doc) {
+        DiscussPost post = new DiscussPost();
+        post.setId(Integer.parseInt(doc.get("id")));
+        post.setUserId(doc.getField("userId").numericValue().intValue());
+        post.setTitle(doc.get("title"));
+        post.setContent(doc.get("content"));
+        post.setType(doc.getField("type").numericValue().intValue());
+        post.setStatus(doc.getField("status").numericValue().intValue());
+        post.setCreateTime(new Date(doc.getField("createTime").numericValue().longValue()));
+        post.setCommentCount(doc.getField("commentCount").numericValue().intValue());
+        post.setScore(doc.getField("score").numericValue().doubleValue());
+        return post;
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.nowcoder.community.service;
+
+import com.nowcoder.community.dao.MessageArchiveMapper;
+import com.nowcoder.community.dao.MessageMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Date;
+
+//把超过一定天数的已读私信和已读通知从message表移到message_archive表，让message表保持在buffer pool能装下的大小
+@Service
+public class MessageArchiveService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageArchiveService.class);
+
+    @Autowired
+    private MessageMapper messageMapper;
+
+    @Autowired
+    private MessageArchiveMapper messageArchiveMapper;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    //超过多少天的消息归档
+    @Value("${community.message.archive.days:180}")
+    private int days;
+
+    //每批处理的消息id区间大小，每批一个事务
+    @Value("${community.message.archive.batch:5000}")
+    private int batchSize;
+
+    //执行一次归档，返回归档的消息数
+    public synchronized int archive() {
+        long start = System.currentTimeMillis();
+        Date cutoff = new Date(start - days * 24L * 3600 * 1000);
+        int minId = messageMapper.selectMinId();
+        int maxId = messageMapper.selectMaxId();
+
+        transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
+
+        int archived = 0;
+        for (int from = minId; from > 0 && from <= maxId; from += batchSize) {
+            final int fromId = from;
+            final int toId = Math.min(from + batchSize, maxId + 1);
+            //id越大的消息越新，区间内最早的消息都不需要归档时，之后的区间也不需要
+            Date minCreateTime = messageMapper.selectMinCreateTime(fromId, toId);
+            if (minCreateTime != null && !minCreateTime.before(cutoff)) {
+                break;
+            }
+            Integer rows = transactionTemplate.execute(status -> {
+                messageArchiveMapper.archiveMessages(fromId, toId, cutoff);
+                return messageArchiveMapper.deleteArchivedMessages(fromId, toId);
+            });
+            archived += rows == null ? 0 : rows;
+        }
+
+        logger.info(String.format("消息归档完成: 归档%d条早于%tF的消息, 耗时%dms",
+                archived, cutoff, System.currentTimeMillis() - start));
+        return archived;
+    }
+
+}
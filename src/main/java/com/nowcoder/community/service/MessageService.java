@@ -1,51 +1,365 @@
 package com.nowcoder.community.service;
 
+import com.nowcoder.community.dao.ConversationMapper;
+import com.nowcoder.community.dao.MessageArchiveMapper;
 import com.nowcoder.community.dao.MessageMapper;
+import com.nowcoder.community.entity.Event;
 import com.nowcoder.community.entity.Message;
+import com.nowcoder.community.entity.NoticePayload;
+import com.nowcoder.community.entity.User;
+import com.nowcoder.community.util.CommunityConstant;
 import com.nowcoder.community.util.SensitiveFilter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.util.HtmlUtils;
 
-import java.util.List;
+import java.util.*;
 
 @Service
-public class MessageService {
+public class MessageService implements CommunityConstant {
 
     @Autowired
     private MessageMapper messageMapper;
 
+    @Autowired
+    private ConversationMapper conversationMapper;
+
+    @Autowired
+    private MessageArchiveMapper messageArchiveMapper;
+
     @Autowired
     private SensitiveFilter sensitiveFilter;
 
+    @Autowired
+    private UnreadService unreadService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PushService pushService;
+
+    @Autowired
+    private BroadcastService broadcastService;
+
+    //是否聚合通知，以及聚合的时间段长度
+    @Value("${community.notice.aggregate:true}")
+    private boolean aggregateNotice;
+
+    @Value("${community.notice.aggregate-bucket-minutes:60}")
+    private int aggregateBucketMinutes;
+
+    //开启归档后，翻到热数据之外时从归档表补充
+    @Value("${community.message.archive.enabled:false}")
+    private boolean archiveEnabled;
+
+    @Value("${community.message.archive.days:180}")
+    private int archiveDays;
+
+    //聚合通知保存的最近触发用户数
+    private static final int MAX_RECENT_ACTORS = 5;
+
+    private static final Comparator<Message> LETTER_ORDER = Comparator.comparing(Message::getId).reversed();
+
+    private static final Comparator<Message> NOTICE_ORDER =
+            Comparator.comparing(Message::getCreateTime).thenComparing(Message::getId).reversed();
+
+    //会话列表从conversation表读取，不再对message表做group by
     public List<Message> findConversations(int userId, int offset, int limit){
-        return messageMapper.selectConversations(userId,offset,limit);
+        return conversationMapper.selectConversations(userId,offset,limit);
     }
 
     public int findConversationCount(int userId){
-        return messageMapper.selectConversationCount(userId);
+        return conversationMapper.selectConversationCount(userId);
     }
 
     public List<Message> findLetters(String conversationId, int offset, int limit){
         return messageMapper.selectLetters(conversationId,offset,limit);
     }
 
+    //游标分页，不依赖offset，翻页代价与会话长度无关
+    public List<Message> findLettersBefore(String conversationId, Integer beforeId, int limit){
+        List<Message> letters = messageMapper.selectLettersBefore(conversationId, beforeId, limit);
+        if(!reachedArchive(letters, limit)){
+            return letters;
+        }
+        return merge(letters, messageArchiveMapper.selectLettersBefore(conversationId, beforeId, limit), LETTER_ORDER, limit);
+    }
+
     public int findLetterCount(String conversationId){
         return messageMapper.selectLetterCount(conversationId);
     }
 
+    //批量查询会话的私信数量(letterCount)和未读数量(unreadCount)，以会话id为key
+    //未读数读取conversation表中维护的unread_count，不再统计message表
+    public Map<String, Map<String, Object>> findLetterCounts(int userId, List<String> conversationIds){
+        Map<String, Map<String, Object>> counts = new HashMap<>();
+        if(conversationIds == null || conversationIds.isEmpty()){
+            return counts;
+        }
+        for(String conversationId : conversationIds){
+            Map<String, Object> map = new HashMap<>();
+            map.put("letterCount", 0);
+            map.put("unreadCount", 0);
+            counts.put(conversationId, map);
+        }
+        for(Map<String, Object> row : messageMapper.selectLetterCounts(conversationIds)){
+            Map<String, Object> map = counts.get((String) row.get("conversationId"));
+            map.put("letterCount", ((Number) row.get("letterCount")).intValue());
+        }
+        for(Map<String, Object> row : conversationMapper.selectUnreadCounts(userId, conversationIds)){
+            Map<String, Object> map = counts.get((String) row.get("conversationId"));
+            map.put("unreadCount", ((Number) row.get("unreadCount")).intValue());
+        }
+        if(archiveEnabled){
+            for(Map<String, Object> row : messageArchiveMapper.selectLetterCounts(conversationIds)){
+                Map<String, Object> map = counts.get((String) row.get("conversationId"));
+                map.put("letterCount", (int) map.get("letterCount") + ((Number) row.get("letterCount")).intValue());
+            }
+        }
+        return counts;
+    }
+
+    //未读数从Redis读取
     public int findLetterUnreadCount(int userId, String conversationId){
-        return messageMapper.selectLetterUnreadCount(userId, conversationId);
+        return unreadService.findLetterUnreadCount(userId, conversationId);
+    }
+
+    //全部未读私信和通知的数量，包括未读的全站公告
+    public int findAllUnreadCount(int userId){
+        return unreadService.findAllUnreadCount(userId) + broadcastService.findUnreadCount(userId);
     }
 
+    //根据事件构造系统通知，内容写入结构化字段
+    public Message createNotice(Event event){
+        Message notice = new Message();
+        notice.setFromId(SYSTEM_USER_ID);
+        notice.setToId(event.getEntityUserId());
+        notice.setConversationId(event.getTopic());
+        notice.setContent("");
+        notice.setCreateTime(new Date());
+        notice.setActorId(event.getUserId());
+        notice.setRecentActors(String.valueOf(event.getUserId()));
+        notice.setEntityType(event.getEntityType());
+        notice.setEntityId(event.getEntityId());
+        Object postId = event.getData().get("postId");
+        if(postId instanceof Number){
+            notice.setPostId(((Number) postId).intValue());
+        }
+        return notice;
+    }
+
+    //新增系统通知，开启聚合时同一时间段内对同一实体的通知合并为一行
+    @Transactional(isolation = Isolation.READ_COMMITTED, propagation = Propagation.REQUIRED)
+    public int addNotice(Message notice){
+        if(!aggregateNotice){
+            int rows = messageMapper.insertMessage(notice);
+            afterCommit(() -> noticeAdded(notice));
+            return rows;
+        }
+        notice.setAggregateKey(aggregateKey(notice));
+
+        //加锁读取聚合通知，直到提交前其他事务都不能合并它，据此判断是否增加未读数不会重复计数
+        Message aggregate = messageMapper.selectNoticeByAggregateKey(notice.getAggregateKey());
+        if(aggregate == null){
+            try {
+                int rows = messageMapper.insertMessage(notice);
+                afterCommit(() -> noticeAdded(notice));
+                return rows;
+            } catch (DuplicateKeyException e) {
+                //并发插入了同一个聚合通知(对方已提交，新建的通知是未读的)，改为合并
+                aggregate = messageMapper.selectNoticeByAggregateKey(notice.getAggregateKey());
+            }
+        }
+        int rows = messageMapper.updateAggregateNotice(aggregate.getId(), notice.getActorId(),
+                notice.getCreateTime(), MAX_RECENT_ACTORS);
+        //已读的聚合通知重新变为未读
+        if(aggregate.getStatus() != 0){
+            afterCommit(() -> noticeAdded(notice));
+        }
+        return rows;
+    }
+
+    //批量新增系统通知(事件消费者每次poll调用一次)，所有通知用一条insert写入
+    @Transactional(isolation = Isolation.READ_COMMITTED, propagation = Propagation.REQUIRED)
+    public int addNotices(List<Message> notices){
+        if(notices.isEmpty()){
+            return 0;
+        }
+        if(!aggregateNotice){
+            int rows = messageMapper.insertNotices(notices, MAX_RECENT_ACTORS);
+            afterCommit(() -> notices.forEach(this::noticeAdded));
+            return rows;
+        }
+
+        //写入前加锁查出已存在的聚合通知，用来判断哪些通知会增加未读数
+        //同一个聚合key的通知属于同一个接收者，在同一个分区中依次处理，不会有两个事务同时新建同一个聚合通知
+        Set<String> keys = new HashSet<>();
+        for(Message notice : notices){
+            notice.setAggregateKey(aggregateKey(notice));
+            keys.add(notice.getAggregateKey());
+        }
+        Map<String, Message> existing = new HashMap<>();
+        for(Message aggregate : messageMapper.selectNoticesByAggregateKeys(keys)){
+            existing.put(aggregate.getAggregateKey(), aggregate);
+        }
+        int rows = messageMapper.insertNotices(notices, MAX_RECENT_ACTORS);
+
+        //每个聚合key最多增加一个未读：新的聚合通知，或者已读的聚合通知重新变为未读
+        List<Message> added = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for(Message notice : notices){
+            if(!seen.add(notice.getAggregateKey())){
+                continue;
+            }
+            Message aggregate = existing.get(notice.getAggregateKey());
+            if(aggregate == null || aggregate.getStatus() != 0){
+                added.add(notice);
+            }
+        }
+        afterCommit(() -> added.forEach(this::noticeAdded));
+        return rows;
+    }
+
+    //同一用户、同一主题、同一实体在同一时间段内的通知使用相同的聚合key
+    private String aggregateKey(Message notice){
+        long bucket = notice.getCreateTime().getTime() / (aggregateBucketMinutes * 60 * 1000L);
+        return notice.getToId() + ":" + notice.getConversationId() + ":"
+                + notice.getEntityType() + ":" + notice.getEntityId() + ":" + bucket;
+    }
+
+    @Transactional(isolation = Isolation.READ_COMMITTED, propagation = Propagation.REQUIRED)
     public int addMessage(Message message){
         message.setContent(HtmlUtils.htmlEscape(message.getContent()));
         message.setContent(sensitiveFilter.filter(message.getContent()));
-        return messageMapper.insertMessage(message);
+        int rows = messageMapper.insertMessage(message);
+
+        //私信同时更新双方的会话
+        if(message.getFromId() != SYSTEM_USER_ID){
+            conversationMapper.upsertConversation(message.getFromId(), message.getToId(),
+                    message.getConversationId(), message.getId(), 0);
+            conversationMapper.upsertConversation(message.getToId(), message.getFromId(),
+                    message.getConversationId(), message.getId(), message.getStatus() == 0 ? 1 : 0);
+        }
+
+        //事务提交后再更新未读计数
+        if(message.getStatus() == 0){
+            String field = message.getFromId() == SYSTEM_USER_ID
+                    ? UnreadService.noticeField(message.getConversationId())
+                    : UnreadService.letterField(message.getConversationId());
+            afterCommit(() -> changeUnread(message.getToId(), field, 1));
+        }
+        return rows;
+    }
+
+    //adjustUnread为false时不更新Redis中的未读计数(调用方已经提前更新过)
+    @Transactional(isolation = Isolation.READ_COMMITTED, propagation = Propagation.REQUIRED)
+    public int readMessage(List<Integer> ids, boolean adjustUnread){
+        //先统计各会话/主题中将被读的消息数量，再改状态
+        List<Map<String, Object>> groups = messageMapper.selectUnreadGroups(ids);
+        int rows = messageMapper.updateStatus(ids, 1);
+        for(Map<String, Object> group : groups){
+            int userId = ((Number) group.get("userId")).intValue();
+            String conversationId = (String) group.get("conversationId");
+            int count = ((Number) group.get("count")).intValue();
+            boolean notice = ((Number) group.get("notice")).intValue() == 1;
+            if(!notice){
+                conversationMapper.decreaseUnreadCount(userId, conversationId, count);
+            }
+            if(adjustUnread){
+                String field = notice ? UnreadService.noticeField(conversationId) : UnreadService.letterField(conversationId);
+                afterCommit(() -> changeUnread(userId, field, -count));
+            }
+        }
+        return rows;
+    }
+
+    //更新未读计数，并推送给在线的用户
+    public void changeUnread(int userId, String field, int delta){
+        unreadService.increase(userId, field, delta);
+        Map<String, Object> data = new HashMap<>();
+        data.put("field", field);
+        data.put("delta", delta);
+        pushService.push(userId, "unread", data);
     }
 
-    public int readMessage(List<Integer> ids){
-        return messageMapper.updateStatus(ids, 1);
+    //新通知(或重新变为未读的聚合通知)：更新未读计数，并推送通知摘要
+    private void noticeAdded(Message notice){
+        changeUnread(notice.getToId(), UnreadService.noticeField(notice.getConversationId()), 1);
+        Map<String, Object> data = new HashMap<>();
+        data.put("topic", notice.getConversationId());
+        data.put("actorId", notice.getActorId());
+        data.put("entityType", notice.getEntityType());
+        data.put("entityId", notice.getEntityId());
+        data.put("postId", notice.getPostId());
+        pushService.push(notice.getToId(), "notice", data);
+    }
+
+    private void afterCommit(Runnable task){
+        if(!TransactionSynchronizationManager.isSynchronizationActive()){
+            task.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                task.run();
+            }
+        });
+    }
+
+    //通知列表页：各主题的最新通知、通知数量和未读数量，共两条SQL，以主题为key；全站公告单独合并进来
+    public Map<String, Map<String, Object>> findNoticeOverview(int userId){
+        Map<String, Map<String, Object>> overview = new HashMap<>();
+        Map<String, Object> broadcast = broadcastService.findSummary(userId);
+        if(broadcast != null){
+            overview.put(TOPIC_BROADCAST, broadcast);
+        }
+        List<Map<String, Object>> summaries = messageMapper.selectNoticeSummaries(
+                userId, Arrays.asList(TOPIC_COMMENT, TOPIC_LIKE, TOPIC_FOLLOW));
+        if(summaries.isEmpty()){
+            return overview;
+        }
+
+        List<Integer> latestIds = new ArrayList<>();
+        for(Map<String, Object> summary : summaries){
+            latestIds.add(((Number) summary.get("latestId")).intValue());
+        }
+        Map<Integer, Message> latest = new HashMap<>();
+        for(Message message : messageMapper.selectMessagesByIds(latestIds)){
+            latest.put(message.getId(), message);
+        }
+
+        List<NoticePayload> payloads = new ArrayList<>();
+        List<Integer> userIds = new ArrayList<>();
+        for(Map<String, Object> summary : summaries){
+            NoticePayload payload = NoticePayload.of(latest.get(((Number) summary.get("latestId")).intValue()));
+            payloads.add(payload);
+            userIds.add(payload.getActorId());
+        }
+        Map<Integer, User> users = userService.findUsersByIds(userIds);
+
+        for(int i = 0; i < summaries.size(); i++){
+            Map<String, Object> summary = summaries.get(i);
+            NoticePayload payload = payloads.get(i);
+            Map<String, Object> messageVO = new HashMap<>();
+            messageVO.put("message", latest.get(((Number) summary.get("latestId")).intValue()));
+            messageVO.put("user", users.get(payload.getActorId()));
+            messageVO.put("entityType", payload.getEntityType());
+            messageVO.put("entityId", payload.getEntityId());
+            messageVO.put("postId", payload.getPostId());
+            messageVO.put("count", ((Number) summary.get("count")).intValue());
+            messageVO.put("unread", ((Number) summary.get("unread")).intValue());
+            overview.put((String) summary.get("topic"), messageVO);
+        }
+        return overview;
     }
 
     public Message findLatestNotice(int userId, String topic){
@@ -56,12 +370,47 @@ public class MessageService {
         return messageMapper.selectNoticeCount(userId, topic);
     }
 
+    //公告的未读数按水位计算，topic为null时合并到通知总数中
     public int findNoticeUnreadCount(int userId, String topic){
-        return messageMapper.selectNoticeUnreadCount(userId, topic);
+        if(TOPIC_BROADCAST.equals(topic)){
+            return broadcastService.findUnreadCount(userId);
+        }
+        int count = unreadService.findNoticeUnreadCount(userId, topic);
+        return topic == null ? count + broadcastService.findUnreadCount(userId) : count;
     }
 
     public List<Message> findNotices(int userId, String topic, int offset, int limit){
         return messageMapper.selectNotices(userId, topic, offset, limit);
     }
 
+    public List<Message> findNoticesBefore(int userId, String topic, Date beforeTime, Integer beforeId, int limit){
+        List<Message> notices = messageMapper.selectNoticesBefore(userId, topic, beforeTime, beforeId, limit);
+        if(!reachedArchive(notices, limit)){
+            return notices;
+        }
+        return merge(notices, messageArchiveMapper.selectNoticesBefore(userId, topic, beforeTime, beforeId, limit),
+                NOTICE_ORDER, limit);
+    }
+
+    //热表中的数据不足一页，或者这一页已经早于归档时间，说明归档表中可能有属于这一页的消息
+    private boolean reachedArchive(List<Message> messages, int limit){
+        if(!archiveEnabled){
+            return false;
+        }
+        if(messages.size() < limit){
+            return true;
+        }
+        long hotSince = System.currentTimeMillis() - archiveDays * 24L * 3600 * 1000;
+        return messages.get(messages.size() - 1).getCreateTime().getTime() < hotSince;
+    }
+
+    //热表中保留了少量更早的消息(未读消息、会话的最新私信)，所以两边的结果要合并排序
+    private List<Message> merge(List<Message> hot, List<Message> archived, Comparator<Message> order, int limit){
+        List<Message> messages = new ArrayList<>(hot.size() + archived.size());
+        messages.addAll(hot);
+        messages.addAll(archived);
+        messages.sort(order);
+        return messages.size() > limit ? new ArrayList<>(messages.subList(0, limit)) : messages;
+    }
+
 }
@@ -0,0 +1,138 @@
+package com.nowcoder.community.service;
+
+import com.alibaba.fastjson.JSONObject;
+import com.nowcoder.community.util.RedisKeyUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+//通过SSE向已登录的浏览器推送未读数变化和新通知
+//SseEmitter基于异步Servlet，空闲连接不占用Tomcat线程
+@Service
+public class PushService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PushService.class);
+
+    //推送给所有在线用户时使用的userId
+    private static final int ALL_USERS = 0;
+
+    //userId -> 该用户打开的所有连接
+    private final Map<Integer, List<SseEmitter>> emitters = new ConcurrentHashMap<>();
+
+    @Autowired
+    private RedisTemplate redisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    //多节点部署时通过Redis pub/sub转发，单节点可以关闭
+    @Value("${community.push.redis-bridge:true}")
+    private boolean redisBridge;
+
+    @Value("${community.push.timeout-seconds:1800}")
+    private long timeoutSeconds;
+
+    @PostConstruct
+    public void init() {
+        if (redisBridge) {
+            MessageListener listener = (message, pattern) -> {
+                Object body = redisTemplate.getValueSerializer().deserialize(message.getBody());
+                if (body != null) {
+                    JSONObject json = JSONObject.parseObject(body.toString());
+                    deliver(json.getIntValue("userId"), json.getString("name"), json.getString("data"));
+                }
+            };
+            listenerContainer.addMessageListener(listener, new ChannelTopic(RedisKeyUtil.getPushChannel()));
+        }
+    }
+
+    //建立连接
+    public SseEmitter subscribe(int userId) {
+        SseEmitter emitter = new SseEmitter(timeoutSeconds * 1000);
+        List<SseEmitter> list = emitters.computeIfAbsent(userId, id -> new CopyOnWriteArrayList<>());
+        list.add(emitter);
+        emitter.onCompletion(() -> remove(userId, emitter));
+        emitter.onTimeout(() -> remove(userId, emitter));
+        emitter.onError(e -> remove(userId, emitter));
+        return emitter;
+    }
+
+    //向某用户推送事件，data会被转为JSON
+    public void push(int userId, String name, Map<String, Object> data) {
+        String json = JSONObject.toJSONString(data);
+        if (!redisBridge) {
+            deliver(userId, name, json);
+            return;
+        }
+        JSONObject message = new JSONObject();
+        message.put("userId", userId);
+        message.put("name", name);
+        message.put("data", json);
+        redisTemplate.convertAndSend(RedisKeyUtil.getPushChannel(), message.toJSONString());
+    }
+
+    //向所有在线用户推送事件，例如全站公告
+    public void pushAll(String name, Map<String, Object> data) {
+        push(ALL_USERS, name, data);
+    }
+
+    //定时发送心跳，及时清理已断开的连接
+    @Scheduled(fixedDelayString = "${community.push.heartbeat-millis:25000}")
+    public void heartbeat() {
+        for (Map.Entry<Integer, List<SseEmitter>> entry : emitters.entrySet()) {
+            for (SseEmitter emitter : entry.getValue()) {
+                send(entry.getKey(), emitter, SseEmitter.event().comment("ping"));
+            }
+        }
+    }
+
+    //推送给本节点上的连接
+    private void deliver(int userId, String name, String data) {
+        if (userId == ALL_USERS) {
+            for (Integer id : emitters.keySet()) {
+                deliver(id, name, data);
+            }
+            return;
+        }
+        List<SseEmitter> list = emitters.get(userId);
+        if (list == null) {
+            return;
+        }
+        for (SseEmitter emitter : list) {
+            send(userId, emitter, SseEmitter.event().name(name).data(data));
+        }
+    }
+
+    private void send(int userId, SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+        } catch (IOException | IllegalStateException e) {
+            logger.debug("推送失败，关闭连接: " + e.getMessage());
+            remove(userId, emitter);
+            emitter.completeWithError(e);
+        }
+    }
+
+    private void remove(int userId, SseEmitter emitter) {
+        emitters.computeIfPresent(userId, (id, list) -> {
+            list.remove(emitter);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+}
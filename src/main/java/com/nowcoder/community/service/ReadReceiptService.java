@@ -0,0 +1,126 @@
+package com.nowcoder.community.service;
+
+import com.nowcoder.community.entity.Message;
+import com.nowcoder.community.util.CommunityConstant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+
+//已读回执：请求线程只更新Redis中的未读计数并入队，由后台定时批量写入MySQL
+@Service
+public class ReadReceiptService implements CommunityConstant {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadReceiptService.class);
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private UnreadService unreadService;
+
+    //每条update语句最多包含的id数
+    @Value("${community.message.read-batch-size:500}")
+    private int batchSize;
+
+    //写入失败时最多尝试的次数，之后放弃并把提前扣减的未读数加回去
+    @Value("${community.message.read-max-attempts:5}")
+    private int maxAttempts;
+
+    private final LinkedBlockingQueue<Receipt> queue = new LinkedBlockingQueue<>();
+
+    //将userId收到的未读消息标记为已读
+    public void read(int userId, List<Message> messages){
+        if(messages == null){
+            return;
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        for(Message message : messages){
+            if(message.getToId() != userId || message.getStatus() != 0){
+                continue;
+            }
+            String field = message.getFromId() == SYSTEM_USER_ID
+                    ? UnreadService.noticeField(message.getConversationId())
+                    : UnreadService.letterField(message.getConversationId());
+            //已入队但还没写入MySQL的消息登记在UnreadService中，避免重复刷新页面时重复扣减，
+            //缓存缺失时下面的扣减不生效，重新统计时也会扣除这些消息
+            if(!unreadService.addPendingRead(message.getId(), userId, field)){
+                continue;
+            }
+            counts.merge(field, 1, Integer::sum);
+            queue.offer(new Receipt(message.getId(), userId, field));
+        }
+        //未读计数立即更新，页面显示保持正确
+        for(Map.Entry<String, Integer> entry : counts.entrySet()){
+            messageService.changeUnread(userId, entry.getKey(), -entry.getValue());
+        }
+    }
+
+    //写入失败的回执放回队列，下一次刷新时重试(更新状态是幂等的)，仍然保持登记，避免重复扣减未读数
+    @Scheduled(fixedDelayString = "${community.message.read-flush-millis:500}")
+    public void flush(){
+        List<Receipt> batch = new ArrayList<>();
+        List<Receipt> failed = new ArrayList<>();
+        while(queue.drainTo(batch, batchSize) > 0){
+            List<Integer> ids = new ArrayList<>(batch.size());
+            for(Receipt receipt : batch){
+                ids.add(receipt.messageId);
+            }
+            try {
+                messageService.readMessage(ids, false);
+                ids.forEach(unreadService::removePendingRead);
+            } catch (Exception e) {
+                logger.error("批量更新已读状态失败，稍后重试: " + e.getMessage(), e);
+                for(Receipt receipt : batch){
+                    if(++receipt.attempts < maxAttempts){
+                        failed.add(receipt);
+                    }else{
+                        giveUp(receipt);
+                    }
+                }
+            }
+            batch.clear();
+        }
+        queue.addAll(failed);
+    }
+
+    //重试用尽：消息在MySQL中仍是未读，加回提前扣减的未读数，下次打开页面时重新标记
+    private void giveUp(Receipt receipt){
+        logger.error("更新已读状态失败" + maxAttempts + "次，放弃: 消息" + receipt.messageId);
+        try {
+            messageService.changeUnread(receipt.userId, receipt.field, 1);
+        } catch (Exception e) {
+            logger.error("恢复未读计数失败: " + e.getMessage());
+        } finally {
+            unreadService.removePendingRead(receipt.messageId);
+        }
+    }
+
+    @PreDestroy
+    public void destroy(){
+        flush();
+    }
+
+    private static class Receipt {
+
+        private final int messageId;
+        private final int userId;
+        //扣减过未读数的会话/主题
+        private final String field;
+        private int attempts;
+
+        Receipt(int messageId, int userId, String field){
+            this.messageId = messageId;
+            this.userId = userId;
+            this.field = field;
+        }
+
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.nowcoder.community.service;
+
+import com.nowcoder.community.util.RedisKeyUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//将单机模式下的key迁移为集群模式(带hash tag)的key，只由RedisKeyMigrationJob在停机时离线执行
+@Service
+public class RedisKeyMigrationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisKeyMigrationService.class);
+
+    //需要迁移的key
+    private static final String[] PATTERNS = {"like:*", "followee:*", "follower:*", "uv:*", "dau:*", "recommend:follow:*", "broadcast:read:*"};
+
+    private static final int SCAN_COUNT = 1000;
+
+    @Autowired
+    private RedisTemplate redisTemplate;
+
+    //迁移所有旧key，返回迁移的数量；可以重复执行，已迁移的key会被跳过
+    public int migrateToClusterKeys() {
+        if (!RedisKeyUtil.isClusterMode()) {
+            throw new IllegalStateException("未开启community.redis.cluster-mode，迁移后的key不会被读取");
+        }
+        int migrated = 0;
+        for (String pattern : PATTERNS) {
+            for (String legacyKey : scanKeys(pattern)) {
+                String clusterKey = RedisKeyUtil.toClusterKey(legacyKey);
+                if (clusterKey == null) {
+                    continue;
+                }
+                if (migrateKey(legacyKey, clusterKey)) {
+                    migrated++;
+                }
+            }
+        }
+        logger.info("Redis key迁移完成，共迁移" + migrated + "个key");
+        return migrated;
+    }
+
+    //DUMP/RESTORE都是单key命令，不要求新旧key在同一个slot
+    private boolean migrateKey(String legacyKey, String clusterKey) {
+        byte[] value = redisTemplate.dump(legacyKey);
+        if (value == null) {
+            return false;
+        }
+        Long ttl = redisTemplate.getExpire(legacyKey, TimeUnit.MILLISECONDS);
+        long timeout = ttl == null || ttl < 0 ? 0 : ttl;
+        redisTemplate.restore(clusterKey, value, timeout, TimeUnit.MILLISECONDS, true);
+        redisTemplate.delete(legacyKey);
+        return true;
+    }
+
+    private List<String> scanKeys(String pattern) {
+        return (List<String>) redisTemplate.execute(new RedisCallback() {
+            @Override
+            public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                List<String> keys = new ArrayList<>();
+                ScanOptions options = ScanOptions.scanOptions().match(pattern).count(SCAN_COUNT).build();
+                try (Cursor<byte[]> cursor = connection.scan(options)) {
+                    while (cursor.hasNext()) {
+                        keys.add(new String(cursor.next()));
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException("扫描Redis key失败: " + pattern, e);
+                }
+                return keys;
+            }
+        });
+    }
+
+}
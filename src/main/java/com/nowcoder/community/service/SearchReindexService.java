@@ -0,0 +1,9 @@
+package com.nowcoder.community.service;
+
+//从MySQL重建帖子索引，community.search.backend选择实现，由DiscussPostReindexJob调用
+public interface SearchReindexService {
+
+    //重建索引，返回写入的帖子数
+    long reindex() throws Exception;
+
+}
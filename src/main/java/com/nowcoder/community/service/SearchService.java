@@ -0,0 +1,21 @@
+package com.nowcoder.community.service;
+
+import com.nowcoder.community.entity.DiscussPost;
+import org.springframework.data.domain.Page;
+
+import java.util.List;
+
+//帖子搜索，community.search.backend选择实现：elasticsearch或lucene(内嵌，索引保存在本地磁盘)
+public interface SearchService {
+
+    void saveDiscussPost(DiscussPost post);
+
+    //批量写入，一次请求或一次提交
+    void saveDiscussPosts(List<DiscussPost> posts);
+
+    void deleteDiscussPost(int id);
+
+    //在标题和内容中搜索，按类型、分数、创建时间倒序，匹配的关键词高亮；current从0开始
+    Page<DiscussPost> searchDiscussPost(String keyword, int current, int limit);
+
+}
@@ -0,0 +1,156 @@
+package com.nowcoder.community.service;
+
+import com.nowcoder.community.dao.MessageMapper;
+import com.nowcoder.community.util.RedisKeyUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+//未读消息计数，缓存在Redis的hash中：letter:会话id / notice:主题 -> 未读数
+@Service
+public class UnreadService {
+
+    private static final String LETTER_PREFIX = "letter:";
+    private static final String NOTICE_PREFIX = "notice:";
+
+    //占位字段，保证没有未读消息的用户也有缓存
+    private static final String INIT_FIELD = "init";
+
+    //只在缓存存在时累加，避免在缺失的缓存上留下不完整的计数；结果不小于0
+    private static final RedisScript<Long> INCREASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 0 then return nil end " +
+            "local count = redis.call('hincrby', KEYS[1], ARGV[1], ARGV[2]) " +
+            "if count < 0 then redis.call('hset', KEYS[1], ARGV[1], 0) count = 0 end " +
+            "return count", Long.class);
+
+    @Autowired
+    private RedisTemplate redisTemplate;
+
+    @Autowired
+    private MessageMapper messageMapper;
+
+    //缓存过期后从MySQL重新统计，修正可能的偏差
+    @Value("${community.message.unread-cache-seconds:86400}")
+    private int cacheSeconds;
+
+    //已经在缓存中扣减、但MySQL中还没改为已读的消息：messageId -> 用户和会话/主题
+    //重新统计时这些消息在MySQL中仍是未读，需要从结果中扣除，否则缓存缺失时的扣减会丢失
+    private final Map<Integer, PendingRead> pendingReads = new ConcurrentHashMap<>();
+
+    public static String letterField(String conversationId) {
+        return LETTER_PREFIX + conversationId;
+    }
+
+    public static String noticeField(String topic) {
+        return NOTICE_PREFIX + topic;
+    }
+
+    //查询某用户的全部未读计数，一次HGETALL，缓存不存在时从MySQL统计
+    public Map<String, Integer> findUnreadCounts(int userId) {
+        String redisKey = RedisKeyUtil.getUnreadKey(userId);
+        Map<String, Object> entries = redisTemplate.opsForHash().entries(redisKey);
+        if (entries == null || entries.isEmpty()) {
+            return reconcile(userId);
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            counts.put(entry.getKey(), ((Number) entry.getValue()).intValue());
+        }
+        return counts;
+    }
+
+    //未读私信数，conversationId为null时统计全部会话
+    public int findLetterUnreadCount(int userId, String conversationId) {
+        return sum(findUnreadCounts(userId), LETTER_PREFIX, conversationId);
+    }
+
+    //未读通知数，topic为null时统计全部主题
+    public int findNoticeUnreadCount(int userId, String topic) {
+        return sum(findUnreadCounts(userId), NOTICE_PREFIX, topic);
+    }
+
+    //全部未读消息数
+    public int findAllUnreadCount(int userId) {
+        Map<String, Integer> counts = findUnreadCounts(userId);
+        return sum(counts, LETTER_PREFIX, null) + sum(counts, NOTICE_PREFIX, null);
+    }
+
+    public static int sum(Map<String, Integer> counts, String prefix, String name) {
+        if (name != null) {
+            Integer count = counts.get(prefix + name);
+            return count == null ? 0 : count;
+        }
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                total += entry.getValue();
+            }
+        }
+        return total;
+    }
+
+    //调整计数，缓存不存在时不处理(下次读取时会从MySQL统计)
+    public void increase(int userId, String field, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        redisTemplate.execute(INCREASE_SCRIPT, RedisSerializer.string(), RedisSerializer.string(),
+                Collections.singletonList(RedisKeyUtil.getUnreadKey(userId)), field, String.valueOf(delta));
+    }
+
+    //登记一条提前扣减了未读数的消息，已经登记过时返回false(不要重复扣减)
+    public boolean addPendingRead(int messageId, int userId, String field) {
+        return pendingReads.putIfAbsent(messageId, new PendingRead(userId, field)) == null;
+    }
+
+    //消息已在MySQL中改为已读(或放弃更新)，不再需要扣除
+    public void removePendingRead(int messageId) {
+        pendingReads.remove(messageId);
+    }
+
+    private Map<String, Integer> reconcile(int userId) {
+        Map<String, Integer> counts = new HashMap<>();
+        counts.put(INIT_FIELD, 0);
+        List<Map<String, Object>> rows = messageMapper.selectUnreadCounts(userId);
+        for (Map<String, Object> row : rows) {
+            String conversationId = (String) row.get("conversationId");
+            boolean notice = ((Number) row.get("notice")).intValue() == 1;
+            String field = notice ? noticeField(conversationId) : letterField(conversationId);
+            counts.merge(field, ((Number) row.get("count")).intValue(), Integer::sum);
+        }
+        //在查询之后读取，期间刚写入MySQL的消息最多多算一次，缓存过期后会修正
+        for (PendingRead read : pendingReads.values()) {
+            if (read.userId == userId) {
+                counts.computeIfPresent(read.field, (field, count) -> Math.max(count - 1, 0));
+            }
+        }
+        String redisKey = RedisKeyUtil.getUnreadKey(userId);
+        redisTemplate.opsForHash().putAll(redisKey, counts);
+        redisTemplate.expire(redisKey, cacheSeconds, TimeUnit.SECONDS);
+        return counts;
+    }
+
+    private static class PendingRead {
+
+        private final int userId;
+        private final String field;
+
+        PendingRead(int userId, String field) {
+            this.userId = userId;
+            this.field = field;
+        }
+
+    }
+
+}
@@ -10,15 +10,15 @@ import com.nowcoder.community.util.RedisKeyUtil;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.stereotype.Service;
 import org.thymeleaf.TemplateEngine;
 import org.thymeleaf.context.Context;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 @Service
@@ -54,6 +54,37 @@ public class UserService implements CommunityConstant {
         return user;
     }
 
+    //批量查询用户，一次MGET，缓存中没有的再一次查询MySQL
+    public Map<Integer, User> findUsersByIds(Collection<Integer> ids){
+        Map<Integer, User> users = new HashMap<>();
+        if(ids == null || ids.isEmpty()){
+            return users;
+        }
+        List<Integer> idList = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<String> keys = new ArrayList<>();
+        for(Integer id : idList){
+            keys.add(RedisKeyUtil.getUserKey(id));
+        }
+        List<Object> cached = redisTemplate.opsForValue().multiGet(keys);
+        List<Integer> missing = new ArrayList<>();
+        for(int i = 0; i < idList.size(); i++){
+            Object user = cached == null ? null : cached.get(i);
+            if(user != null){
+                users.put(idList.get(i), (User) user);
+            }else{
+                missing.add(idList.get(i));
+            }
+        }
+        if(!missing.isEmpty()){
+            List<User> loaded = userMapper.selectByIds(missing);
+            for(User user : loaded){
+                users.put(user.getId(), user);
+            }
+            initCache(loaded);
+        }
+        return users;
+    }
+
     public Map<String, Object> register(User user){
 
         Map<String,Object> map = new HashMap<>();
@@ -197,6 +228,21 @@ public class UserService implements CommunityConstant {
         return user;
     }
 
+    private void initCache(List<User> users){
+        if(users.isEmpty()){
+            return;
+        }
+        redisTemplate.executePipelined(new SessionCallback() {
+            @Override
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for(User user : users){
+                    operations.opsForValue().set(RedisKeyUtil.getUserKey(user.getId()), user, 7200, TimeUnit.SECONDS);
+                }
+                return null;
+            }
+        });
+    }
+
     // 3.数据变更时清除数据
     private void clearCache(int userId){
         String redisKey = RedisKeyUtil.getUserKey(userId);
@@ -63,4 +63,28 @@ public interface CommunityConstant {
      */
     String TOPIC_PUBLISH = "publish";
 
+    /**
+     * 主题:帖子分数变化
+     */
+    String TOPIC_SCORE = "score";
+
+    /**
+     * 主题:全站公告
+     */
+    String TOPIC_BROADCAST = "broadcast";
+
+    /**
+     * 主题:处理失败的事件按重试次数依次进入的延迟重试主题
+     */
+    String TOPIC_RETRY_1 = "event-retry-1";
+
+    String TOPIC_RETRY_2 = "event-retry-2";
+
+    String TOPIC_RETRY_3 = "event-retry-3";
+
+    /**
+     * 主题:重试用尽的事件(死信)
+     */
+    String TOPIC_DEAD_LETTER = "event-dlt";
+
 }
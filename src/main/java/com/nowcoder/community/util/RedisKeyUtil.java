@@ -12,26 +12,52 @@ public class RedisKeyUtil {
     private static final String PREFIX_USER = "user";
     private static final String PREFIX_UV = "uv";
     private static final String PREFIX_DAU = "dau";
+    private static final String PREFIX_FOLLOW_RECOMMEND = "recommend:follow";
+    private static final String PREFIX_FOLLOW_MUTUAL = "follow:mutual";
+    private static final String PREFIX_UNREAD = "unread";
+    private static final String PREFIX_BROADCAST = "broadcast";
+    private static final String PREFIX_EVENT_DEDUP = "event:dedup";
+    private static final String PREFIX_REINDEX = "reindex";
+
+    //集群模式：用hash tag({...})决定key落在哪个slot，由RedisConfig在启动时设置
+    private static volatile boolean clusterMode = false;
+
+    public static void setClusterMode(boolean clusterMode) {
+        RedisKeyUtil.clusterMode = clusterMode;
+    }
+
+    public static boolean isClusterMode() {
+        return clusterMode;
+    }
+
+    //集群模式下给key的一部分加上hash tag，只有{}内的内容参与slot计算
+    private static String tag(Object part) {
+        return clusterMode ? "{" + part + "}" : String.valueOf(part);
+    }
 
     //某个实体的赞   存的形式-> like:entity:entityType:entityId -> 存到set(userId)
+    //集群模式：like:entity:entityType:{entityId}
     public static String getEntityLikeKey(int entityType, int entityId){
-        return PREFIX_ENTITY_LIKE + SPLIT + entityType + SPLIT + entityId;
+        return PREFIX_ENTITY_LIKE + SPLIT + entityType + SPLIT + tag(entityId);
     }
 
     //某个用户的赞   like:user:userId -> int
+    //集群模式：like:user:{userId}
     public static String getUserLikeKey(int userId){
-        return PREFIX_USER_LIKE + SPLIT + userId;
+        return PREFIX_USER_LIKE + SPLIT + tag(userId);
     }
 
     //某个用户关注的实体   followee:userId:entityType -> zset(entityId,now)
+    //集群模式：followee:{userId}:entityType，与该用户的follower:3:{userId}在同一个slot
     public static String getFolloweeKey(int userId, int entityType){
-        return PREFIX_FOLLOWEE + SPLIT + userId +SPLIT + entityType;
+        return PREFIX_FOLLOWEE + SPLIT + tag(userId) + SPLIT + entityType;
 
     }
 
     //某实体拥有的粉丝 follower:entityType:entityId -> zset(userId,now)
+    //集群模式：follower:entityType:{entityId}
     public static String getFollowerKey(int entityType, int entityId){
-        return PREFIX_FOLLOWER + SPLIT + entityType + SPLIT + entityId;
+        return PREFIX_FOLLOWER + SPLIT + entityType + SPLIT + tag(entityId);
     }
 
     //登录验证码
@@ -51,23 +77,117 @@ public class RedisKeyUtil {
     }
 
     // 单日UV
+    // 集群模式：{uv}:date，区间合并(PFMERGE)要求所有key在同一个slot
     public static String getUVKey(String date) {
-        return PREFIX_UV + SPLIT + date;
+        return tag(PREFIX_UV) + SPLIT + date;
     }
 
     // 区间UV
     public static String getUVKey(String startDate, String endDate) {
-        return PREFIX_UV + SPLIT + startDate + SPLIT + endDate;
+        return tag(PREFIX_UV) + SPLIT + startDate + SPLIT + endDate;
     }
 
     // 单日活跃用户
+    // 集群模式：{dau}:date，区间BITOP要求所有key在同一个slot
     public static String getDAUKey(String date) {
-        return PREFIX_DAU + SPLIT + date;
+        return tag(PREFIX_DAU) + SPLIT + date;
     }
 
     // 区间活跃用户
     public static String getDAUKey(String startDate, String endDate) {
-        return PREFIX_DAU + SPLIT + startDate + SPLIT + endDate;
+        return tag(PREFIX_DAU) + SPLIT + startDate + SPLIT + endDate;
+    }
+
+    //为某个用户推荐的关注 recommend:follow:userId -> zset(userId,共同关注数)
+    public static String getFollowRecommendKey(int userId) {
+        return PREFIX_FOLLOW_RECOMMEND + SPLIT + tag(userId);
+    }
+
+    //关注关系发生变化、等待重新计算推荐的用户 -> set(userId)
+    public static String getFollowChangedKey() {
+        return PREFIX_FOLLOW_RECOMMEND + SPLIT + "changed";
+    }
+
+    //上次计算推荐的时间
+    public static String getFollowRecommendLastRunKey() {
+        return PREFIX_FOLLOW_RECOMMEND + SPLIT + "lastrun";
+    }
+
+    //viewer关注的人中同时关注了target的人(短期缓存) follow:mutual:viewerId:targetId -> zset(userId,关注时间)
+    public static String getFollowMutualKey(int viewerId, int targetId) {
+        return PREFIX_FOLLOW_MUTUAL + SPLIT + tag(viewerId) + SPLIT + targetId;
+    }
+
+    //某用户的未读消息数 unread:userId -> hash(letter:conversationId / notice:topic -> 未读数)
+    public static String getUnreadKey(int userId) {
+        return PREFIX_UNREAD + SPLIT + tag(userId);
+    }
+
+    //最近的全站公告 broadcast:ids -> zset(公告id,公告id)
+    public static String getBroadcastIdsKey() {
+        return PREFIX_BROADCAST + SPLIT + "ids";
+    }
+
+    //某用户已读到的最新公告id broadcast:read:userId -> int
+    public static String getBroadcastReadKey(int userId) {
+        return PREFIX_BROADCAST + SPLIT + "read" + SPLIT + tag(userId);
+    }
+
+    //消息推送的pub/sub频道，多个节点之间转发推送
+    public static String getPushChannel() {
+        return "channel:push";
+    }
+
+    //某个事件处理器最近处理过的事件id  event:dedup:handler -> zset(eventId, 处理时间)
+    //单个key，去重脚本只访问这一个key，集群模式下不需要hash tag
+    public static String getEventDedupKey(String handler) {
+        return PREFIX_EVENT_DEDUP + SPLIT + handler;
+    }
+
+    //重建索引的进度 reindex:alias -> hash(index, minId, maxId, rangeSize)
+    public static String getReindexKey(String alias) {
+        return PREFIX_REINDEX + SPLIT + alias;
+    }
+
+    //重建索引已完成的id区间 reindex:alias:done -> set(区间起始id)
+    public static String getReindexDoneKey(String alias) {
+        return PREFIX_REINDEX + SPLIT + alias + SPLIT + "done";
+    }
+
+    //重建索引期间有更新的帖子 reindex:alias:changed -> set(帖子id)，切换别名前补写到新索引
+    public static String getReindexChangedKey(String alias) {
+        return PREFIX_REINDEX + SPLIT + alias + SPLIT + "changed";
+    }
+
+    //将单机模式下的旧key转换为集群模式下的key，不需要迁移的key返回null
+    public static String toClusterKey(String legacyKey) {
+        if (legacyKey == null || legacyKey.contains("{")) {
+            return null;
+        }
+        String[] parts = legacyKey.split(SPLIT);
+        if (legacyKey.startsWith(PREFIX_ENTITY_LIKE + SPLIT) && parts.length == 4) {
+            return PREFIX_ENTITY_LIKE + SPLIT + parts[2] + SPLIT + "{" + parts[3] + "}";
+        }
+        if (legacyKey.startsWith(PREFIX_USER_LIKE + SPLIT) && parts.length == 3) {
+            return PREFIX_USER_LIKE + SPLIT + "{" + parts[2] + "}";
+        }
+        if (PREFIX_FOLLOWEE.equals(parts[0]) && parts.length == 3) {
+            return PREFIX_FOLLOWEE + SPLIT + "{" + parts[1] + "}" + SPLIT + parts[2];
+        }
+        if (PREFIX_FOLLOWER.equals(parts[0]) && parts.length == 3) {
+            return PREFIX_FOLLOWER + SPLIT + parts[1] + SPLIT + "{" + parts[2] + "}";
+        }
+        if (legacyKey.startsWith(PREFIX_FOLLOW_RECOMMEND + SPLIT) && parts.length == 3
+                && parts[2].chars().allMatch(Character::isDigit)) {
+            return PREFIX_FOLLOW_RECOMMEND + SPLIT + "{" + parts[2] + "}";
+        }
+        if (legacyKey.startsWith(PREFIX_BROADCAST + SPLIT + "read" + SPLIT) && parts.length == 3) {
+            return PREFIX_BROADCAST + SPLIT + "read" + SPLIT + "{" + parts[2] + "}";
+        }
+        if (PREFIX_UV.equals(parts[0]) || PREFIX_DAU.equals(parts[0])) {
+            return "{" + parts[0] + "}" + legacyKey.substring(parts[0].length());
+        }
+        return null;
     }
 
 }
@@ -0,0 +1,10 @@
+-- 全站公告：每条公告只保存一行，不再给每个用户插入一条通知
+-- 每个用户读到哪一条公告保存在Redis(broadcast:read:userId)，未读数在读取时按id计算
+CREATE TABLE IF NOT EXISTS `broadcast_notice` (
+  `id` int(11) NOT NULL AUTO_INCREMENT,
+  `from_id` int(11) NOT NULL COMMENT '发布公告的管理员',
+  `content` text,
+  `status` int(11) NOT NULL DEFAULT '0' COMMENT '0-正常;1-撤回',
+  `create_time` timestamp NULL DEFAULT NULL,
+  PRIMARY KEY (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -0,0 +1,11 @@
+-- 会话表：每个会话为每个参与者各保存一行，私信列表直接按(user_id, last_message_id)索引扫描
+CREATE TABLE IF NOT EXISTS `conversation` (
+  `user_id` int(11) NOT NULL COMMENT '会话参与者',
+  `conversation_id` varchar(45) NOT NULL,
+  `peer_id` int(11) NOT NULL COMMENT '会话的另一方',
+  `last_message_id` int(11) NOT NULL COMMENT '会话中最新一条私信',
+  `unread_count` int(11) NOT NULL DEFAULT '0' COMMENT 'user_id未读的私信数量',
+  `update_time` timestamp NULL DEFAULT NULL,
+  PRIMARY KEY (`user_id`, `conversation_id`),
+  KEY `index_user_last_message` (`user_id`, `last_message_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
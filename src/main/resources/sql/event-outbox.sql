@@ -0,0 +1,14 @@
+-- 事件发件箱：领域事件和业务数据在同一个事务中写入，由EventOutboxRelay按id顺序批量发布到Kafka后删除
+-- 已发布的行会被删除，表中只保留尚未发布的事件
+CREATE TABLE IF NOT EXISTS `event_outbox` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `topic` varchar(45) NOT NULL,
+  `event_key` varchar(32) DEFAULT NULL COMMENT 'Kafka消息的key(entityUserId)，同一个key的事件进入同一个分区',
+  `payload` blob NOT NULL COMMENT 'EventCodec编码后的Event',
+  `create_time` timestamp NULL DEFAULT NULL,
+  PRIMARY KEY (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- 已按旧版本(payload为JSON文本)建表时执行，已有的JSON事件照常发布，消费者兼容JSON格式
+-- ALTER TABLE `event_outbox` MODIFY `payload` blob NOT NULL;
+-- ALTER TABLE `event_outbox` ADD `event_key` varchar(32) DEFAULT NULL AFTER `topic`;
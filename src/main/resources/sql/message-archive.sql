@@ -0,0 +1,32 @@
+-- 历史消息归档：超过一定天数的已读私信和已读通知移入message_archive，message表只保留热数据
+-- 归档表结构与message相同，压缩行格式，按id区间分区；分区用完后执行
+-- ALTER TABLE message_archive REORGANIZE PARTITION pmax INTO (PARTITION pN VALUES LESS THAN (...), PARTITION pmax VALUES LESS THAN MAXVALUE);
+CREATE TABLE IF NOT EXISTS `message_archive` (
+  `id` int(11) NOT NULL,
+  `from_id` int(11) DEFAULT NULL,
+  `to_id` int(11) DEFAULT NULL,
+  `conversation_id` varchar(45) NOT NULL,
+  `content` text,
+  `status` int(11) DEFAULT NULL,
+  `create_time` timestamp NULL DEFAULT NULL,
+  `actor_id` int(11) NOT NULL DEFAULT '0',
+  `entity_type` int(11) NOT NULL DEFAULT '0',
+  `entity_id` int(11) NOT NULL DEFAULT '0',
+  `post_id` int(11) NOT NULL DEFAULT '0',
+  `actor_count` int(11) NOT NULL DEFAULT '1',
+  `recent_actors` varchar(100) DEFAULT NULL,
+  `aggregate_key` varchar(100) DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  KEY `index_conversation_id_id` (`conversation_id`, `id`),
+  KEY `index_to_id_conversation_create_time` (`to_id`, `conversation_id`, `create_time`, `id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 ROW_FORMAT=COMPRESSED KEY_BLOCK_SIZE=8
+PARTITION BY RANGE (`id`) (
+  PARTITION p0 VALUES LESS THAN (10000000),
+  PARTITION p1 VALUES LESS THAN (20000000),
+  PARTITION p2 VALUES LESS THAN (30000000),
+  PARTITION pmax VALUES LESS THAN MAXVALUE
+);
+
+-- 会话的最新一条私信不归档(私信列表直接join它)，归档时按last_message_id判断
+ALTER TABLE `conversation`
+  ADD KEY `index_last_message_id` (`last_message_id`);
@@ -0,0 +1,14 @@
+-- 私信和通知详情改为游标分页(见message-mapper.xml中的selectLettersBefore/selectNoticesBefore)后需要的索引
+-- 这两个索引让分页查询直接从游标位置开始按索引倒序扫描，只读取limit行，不再随offset增长
+
+-- 私信：where conversation_id = ? and id < ? order by id desc
+-- InnoDB的二级索引已包含主键，显式写出id便于核对执行计划(Extra中不应出现Using filesort)
+ALTER TABLE `message`
+  ADD KEY `index_conversation_id_id` (`conversation_id`, `id`);
+
+-- 通知：where to_id = ? and conversation_id = ? and (create_time, id) < (?, ?) order by create_time desc, id desc
+ALTER TABLE `message`
+  ADD KEY `index_to_id_conversation_create_time` (`to_id`, `conversation_id`, `create_time`, `id`);
+
+-- 原有的单列索引index_conversation_id被上面的联合索引覆盖，确认执行计划后可以删除
+-- ALTER TABLE `message` DROP KEY `index_conversation_id`;
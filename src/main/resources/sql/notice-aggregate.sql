@@ -0,0 +1,7 @@
+-- 通知聚合：同一用户、同一主题、同一实体在一个时间段内的通知合并为一行
+-- aggregate_key = toId:topic:entityType:entityId:时间段序号，未聚合的消息为NULL(唯一索引允许多个NULL)
+ALTER TABLE `message`
+  ADD COLUMN `actor_count` int(11) NOT NULL DEFAULT '1' COMMENT '聚合的触发用户数',
+  ADD COLUMN `recent_actors` varchar(100) DEFAULT NULL COMMENT '最近的触发用户id，逗号分隔，最新的在前',
+  ADD COLUMN `aggregate_key` varchar(100) DEFAULT NULL,
+  ADD UNIQUE KEY `uk_aggregate_key` (`aggregate_key`);
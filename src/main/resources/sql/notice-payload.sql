@@ -0,0 +1,18 @@
+-- 通知的内容改为结构化字段，不再在content中保存转义后的JSON；私信的这些字段为0
+ALTER TABLE `message`
+  ADD COLUMN `actor_id` int(11) NOT NULL DEFAULT '0' COMMENT '触发通知的用户',
+  ADD COLUMN `entity_type` int(11) NOT NULL DEFAULT '0',
+  ADD COLUMN `entity_id` int(11) NOT NULL DEFAULT '0',
+  ADD COLUMN `post_id` int(11) NOT NULL DEFAULT '0';
+
+-- 迁移已有的通知：content是HtmlUtils.htmlEscape后的JSON，只有双引号被转义
+-- 数据量大时按id区间分批执行(在where中追加 and id between ? and ?)
+UPDATE `message`
+SET `actor_id` = IFNULL(JSON_EXTRACT(REPLACE(`content`, '&quot;', '"'), '$.userId'), 0),
+    `entity_type` = IFNULL(JSON_EXTRACT(REPLACE(`content`, '&quot;', '"'), '$.entityType'), 0),
+    `entity_id` = IFNULL(JSON_EXTRACT(REPLACE(`content`, '&quot;', '"'), '$.entityId'), 0),
+    `post_id` = IFNULL(JSON_EXTRACT(REPLACE(`content`, '&quot;', '"'), '$.postId'), 0),
+    `content` = ''
+WHERE `from_id` = 1
+  AND `actor_id` = 0
+  AND JSON_VALID(REPLACE(`content`, '&quot;', '"'));
@@ -32,3 +32,17 @@ window.alert = function(message) {
 	$(".alert-box .modal-body p").text(message);
 	$(".alert-box").modal("show");
 }
+
+// 登录后通过SSE接收未读数的变化,不用刷新页面
+$(function() {
+	var badge = $("#allUnreadBadge");
+	if(!badge.length || !window.EventSource) {
+		return;
+	}
+	var source = new EventSource(CONTEXT_PATH + "/message/stream");
+	source.addEventListener("unread", function(e) {
+		var data = JSON.parse(e.data);
+		var count = (parseInt(badge.text()) || 0) + data.delta;
+		badge.text(count > 0 ? count : "");
+	});
+});
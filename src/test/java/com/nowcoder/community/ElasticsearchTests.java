@@ -4,6 +4,7 @@ import com.alibaba.fastjson.JSONObject;
 import com.nowcoder.community.dao.DiscussPostMapper;
 import com.nowcoder.community.dao.elasticsearch.DiscussPostRepository;
 import com.nowcoder.community.entity.DiscussPost;
+import com.nowcoder.community.service.DiscussPostReindexService;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.RequestOptions;
@@ -25,7 +26,7 @@ import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
-@SpringBootTest
+@SpringBootTest(properties = "community.search.backend=elasticsearch")
 @ContextConfiguration(classes = CommunityApplication.class)
 public class ElasticsearchTests {
 
@@ -39,6 +40,9 @@ public class ElasticsearchTests {
     @Autowired
     private RestHighLevelClient restHighLevelClient;
 
+    @Autowired
+    private DiscussPostReindexService discussPostReindexService;
+
     @Test
     public void testInsert() {
         //把id为241的DiscussPost的对象保存到discusspost索引（es的索引相当于数据库的表）
@@ -147,5 +151,10 @@ public class ElasticsearchTests {
         }
     }
 
+    //从MySQL重建discusspost索引并切换别名，日志中有每个区间和总的docs/s
+    @Test
+    public void testReindex() throws Exception {
+        System.out.println("重建索引文档数: " + discussPostReindexService.reindex());
+    }
 
 }
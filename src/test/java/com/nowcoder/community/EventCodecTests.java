@@ -0,0 +1,135 @@
+package com.nowcoder.community;
+
+import com.alibaba.fastjson.JSONObject;
+import com.nowcoder.community.entity.Event;
+import com.nowcoder.community.event.EventCodec;
+import com.nowcoder.community.util.CommunityConstant;
+import com.nowcoder.community.util.CommunityUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+//事件二进制编码的正确性；main方法对比fastjson和二进制编码的吞吐量和每个事件的字节数
+public class EventCodecTests implements CommunityConstant {
+
+    private static final int WARMUP = 200_000;
+    private static final int ITERATIONS = 2_000_000;
+
+    private static Event newEvent() {
+        return new Event()
+                .setId(CommunityUtil.generateUUID())
+                .setTopic(TOPIC_COMMENT)
+                .setUserId(111)
+                .setEntityType(ENTITY_TYPE_POST)
+                .setEntityId(228)
+                .setEntityUserId(149)
+                .setData("postId", 228);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Event event = newEvent()
+                .setData("negative", -5)
+                .setData("long", 1L << 40)
+                .setData("text", "你好")
+                .setData("flag", true)
+                .setData("score", 1.5)
+                .setData("none", null);
+        Event decoded = EventCodec.decode(EventCodec.encode(event));
+        Assertions.assertEquals(JSONObject.toJSONString(event), JSONObject.toJSONString(decoded));
+    }
+
+    @Test
+    public void testEventId() {
+        Event event = newEvent();
+        Assertions.assertEquals(event.getId(), EventCodec.decode(EventCodec.encode(event)).getId());
+        Assertions.assertEquals("0000abc", EventCodec.decode(EventCodec.encode(event.setId("0000abc"))).getId());
+        Assertions.assertNull(EventCodec.decode(EventCodec.encode(event.setId(null))).getId());
+    }
+
+    //版本1没有事件id：comment主题, userId=1, entityType=1, entityId=2, entityUserId=3, 没有data
+    //滚动升级期间按旧版本写入：版本1没有事件id，JSON由旧的消费者按原来的方式解析
+    @Test
+    public void testEncodeOldVersions() {
+        Event event = newEvent();
+        byte[] v1 = EventCodec.encode(event, EventCodec.VERSION_1);
+        Assertions.assertEquals(EventCodec.VERSION_1, v1[0]);
+        Assertions.assertNull(EventCodec.decode(v1).getId());
+        Assertions.assertEquals(149, EventCodec.decode(v1).getEntityUserId());
+
+        byte[] json = EventCodec.encode(event, EventCodec.VERSION_JSON);
+        Assertions.assertEquals(JSONObject.toJSONString(event), JSONObject.toJSONString(
+                JSONObject.parseObject(new String(json, StandardCharsets.UTF_8), Event.class)));
+        Assertions.assertEquals(event.getId(), EventCodec.decode(json).getId());
+    }
+
+    @Test
+    public void testVersion1() {
+        Event event = EventCodec.decode(new byte[]{EventCodec.VERSION_1, 1, 2, 2, 4, 6, 0});
+        Assertions.assertNull(event.getId());
+        Assertions.assertEquals(TOPIC_COMMENT, event.getTopic());
+        Assertions.assertEquals(3, event.getEntityUserId());
+    }
+
+    @Test
+    public void testUnknownTopic() {
+        Event event = newEvent().setTopic("share");
+        Assertions.assertEquals("share", EventCodec.decode(EventCodec.encode(event)).getTopic());
+    }
+
+    @Test
+    public void testJsonFallback() {
+        byte[] json = JSONObject.toJSONString(newEvent()).getBytes(StandardCharsets.UTF_8);
+        Event decoded = EventCodec.decode(json);
+        Assertions.assertEquals(TOPIC_COMMENT, decoded.getTopic());
+        Assertions.assertEquals(149, decoded.getEntityUserId());
+        Assertions.assertEquals(228, decoded.getData().get("postId"));
+    }
+
+    @Test
+    public void testTruncated() {
+        byte[] bytes = EventCodec.encode(newEvent());
+        byte[] truncated = new byte[bytes.length - 2];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> EventCodec.decode(truncated));
+    }
+
+    public static void main(String[] args) {
+        Event event = newEvent();
+        byte[] json = JSONObject.toJSONString(event).getBytes(StandardCharsets.UTF_8);
+        byte[] binary = EventCodec.encode(event);
+        System.out.println(String.format("每个事件: JSON %d字节, 二进制 %d字节", json.length, binary.length));
+
+        for (int round = 0; round < 3; round++) {
+            long jsonEncode = run(() -> JSONObject.toJSONString(event).getBytes(StandardCharsets.UTF_8).length);
+            long binaryEncode = run(() -> EventCodec.encode(event).length);
+            long jsonDecode = run(() -> JSONObject.parseObject(new String(json, StandardCharsets.UTF_8), Event.class).getEntityId());
+            long binaryDecode = run(() -> EventCodec.decode(binary).getEntityId());
+            System.out.println(String.format("第%d轮: 编码 JSON %.1f ns/op, 二进制 %.1f ns/op; 解码 JSON %.1f ns/op, 二进制 %.1f ns/op",
+                    round + 1, jsonEncode / (double) ITERATIONS, binaryEncode / (double) ITERATIONS,
+                    jsonDecode / (double) ITERATIONS, binaryDecode / (double) ITERATIONS));
+        }
+    }
+
+    private static long run(Task task) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += task.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += task.run();
+        }
+        long cost = System.nanoTime() - start;
+        if (sink == 42) {
+            System.out.println(sink);
+        }
+        return cost;
+    }
+
+    private interface Task {
+        int run();
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.nowcoder.community;
+
+import com.nowcoder.community.entity.Event;
+import com.nowcoder.community.entity.Message;
+import com.nowcoder.community.event.EventConsumer;
+import com.nowcoder.community.event.EventDeserializer;
+import com.nowcoder.community.event.EventSerializer;
+import com.nowcoder.community.service.MessageService;
+import com.nowcoder.community.util.CommunityConstant;
+import com.nowcoder.community.event.EventProducer;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.BatchMessageListener;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+//批量消费的吞吐量：向嵌入式Kafka写入一批事件，用和EventConsumer相同的批量监听方式解析并构造通知
+//不连接MySQL，只统计消费、解析和构造通知的部分；每批的写库是一条insert
+public class EventConsumerTests implements CommunityConstant {
+
+    private static final int EVENTS = 100000;
+
+    private static final int MAX_POLL_RECORDS = 500;
+
+    private static final int SCALING_EVENTS = 40000;
+
+    //模拟每批写库的耗时：一次往返加每行的写入
+    private static final long BATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long ROW_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+
+    @Test
+    public void testBatchConsumeThroughput() throws Exception {
+        EmbeddedKafkaBroker broker = new EmbeddedKafkaBroker(1, false, 1, TOPIC_COMMENT);
+        broker.afterPropertiesSet();
+        try {
+            Map<String, Object> producerProps = KafkaTestUtils.producerProps(broker);
+            producerProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+            producerProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, EventSerializer.class);
+            try (KafkaProducer<String, Event> producer = new KafkaProducer<>(producerProps)) {
+                for (int i = 0; i < EVENTS; i++) {
+                    Event event = new Event()
+                            .setTopic(TOPIC_COMMENT)
+                            .setUserId(i % 1000 + 2)
+                            .setEntityType(ENTITY_TYPE_POST)
+                            .setEntityId(i)
+                            .setEntityUserId(i % 100 + 2)
+                            .setData("postId", i);
+                    producer.send(new ProducerRecord<>(TOPIC_COMMENT, event));
+                }
+                producer.flush();
+            }
+
+            Map<String, Object> consumerProps = KafkaTestUtils.consumerProps("throughput", "false", broker);
+            consumerProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+            consumerProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, EventDeserializer.class);
+            consumerProps.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, MAX_POLL_RECORDS);
+
+            MessageService messageService = new MessageService();
+            CountDownLatch latch = new CountDownLatch(EVENTS);
+            AtomicInteger batches = new AtomicInteger();
+            ContainerProperties containerProps = new ContainerProperties(TOPIC_COMMENT);
+            containerProps.setAckMode(ContainerProperties.AckMode.BATCH);
+            containerProps.setMessageListener((BatchMessageListener<String, Event>) records -> {
+                List<Message> notices = new ArrayList<>(records.size());
+                for (ConsumerRecord<String, Event> record : records) {
+                    Event event = EventConsumer.parseEvent(record);
+                    if (event != null) {
+                        notices.add(messageService.createNotice(event));
+                    }
+                    latch.countDown();
+                }
+                batches.incrementAndGet();
+            });
+
+            KafkaMessageListenerContainer<String, Event> container = new KafkaMessageListenerContainer<>(
+                    new DefaultKafkaConsumerFactory<>(consumerProps), containerProps);
+            long start = System.nanoTime();
+            container.start();
+            boolean done = latch.await(60, TimeUnit.SECONDS);
+            long cost = System.nanoTime() - start;
+            container.stop();
+
+            Assertions.assertTrue(done, "60秒内没有消费完全部事件");
+            System.out.println(String.format("批量消费%d个事件: %d批, 平均每批%.1f条, 耗时%dms, 吞吐%.0f事件/秒",
+                    EVENTS, batches.get(), EVENTS * 1.0 / batches.get(),
+                    TimeUnit.NANOSECONDS.toMillis(cost), EVENTS * 1e9 / cost));
+        } finally {
+            broker.destroy();
+        }
+    }
+
+    //按entityUserId分区后，消费线程数随分区数增加时的吞吐量，并检查同一个用户的事件仍按发布顺序处理
+    @Test
+    public void testPartitionScaling() throws Exception {
+        //所有消费线程在同一次再平衡中分到分区，不把消费者陆续加入引起的再平衡算进去
+        EmbeddedKafkaBroker broker = new EmbeddedKafkaBroker(1, false)
+                .brokerProperty("group.initial.rebalance.delay.ms", "1000");
+        broker.afterPropertiesSet();
+        try {
+            for (int partitions : new int[]{1, 2, 4, 8}) {
+                String topic = "scaling-" + partitions;
+                broker.addTopics(new NewTopic(topic, partitions, (short) 1));
+                produceKeyed(broker, topic);
+
+                Map<String, Object> consumerProps = KafkaTestUtils.consumerProps("scaling-" + partitions, "false", broker);
+                consumerProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+                consumerProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, EventDeserializer.class);
+                consumerProps.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, MAX_POLL_RECORDS);
+
+                MessageService messageService = new MessageService();
+                CountDownLatch latch = new CountDownLatch(SCALING_EVENTS);
+                Map<Integer, Integer> lastEntityIds = new ConcurrentHashMap<>();
+                AtomicInteger outOfOrder = new AtomicInteger();
+                AtomicLong firstBatch = new AtomicLong();
+                ContainerProperties containerProps = new ContainerProperties(topic);
+                containerProps.setAckMode(ContainerProperties.AckMode.BATCH);
+                containerProps.setMessageListener((BatchMessageListener<String, Event>) records -> {
+                    firstBatch.compareAndSet(0, System.nanoTime());
+                    List<Message> notices = new ArrayList<>(records.size());
+                    for (ConsumerRecord<String, Event> record : records) {
+                        Event event = EventConsumer.parseEvent(record);
+                        Integer last = lastEntityIds.put(event.getEntityUserId(), event.getEntityId());
+                        if (last != null && last > event.getEntityId()) {
+                            outOfOrder.incrementAndGet();
+                        }
+                        notices.add(messageService.createNotice(event));
+                    }
+                    LockSupport.parkNanos(BATCH_NANOS + ROW_NANOS * notices.size());
+                    for (int i = 0; i < records.size(); i++) {
+                        latch.countDown();
+                    }
+                });
+
+                ConcurrentMessageListenerContainer<String, Event> container = new ConcurrentMessageListenerContainer<>(
+                        new DefaultKafkaConsumerFactory<>(consumerProps), containerProps);
+                container.setConcurrency(partitions);
+                container.start();
+                boolean done = latch.await(120, TimeUnit.SECONDS);
+                long cost = System.nanoTime() - firstBatch.get();
+                container.stop();
+
+                Assertions.assertTrue(done, "120秒内没有消费完全部事件");
+                Assertions.assertEquals(0, outOfOrder.get(), "同一个用户的事件乱序");
+                System.out.println(String.format("%d个分区/%d个线程: 消费%d个事件耗时%dms, 吞吐%.0f事件/秒",
+                        partitions, partitions, SCALING_EVENTS,
+                        TimeUnit.NANOSECONDS.toMillis(cost), SCALING_EVENTS * 1e9 / cost));
+            }
+        } finally {
+            broker.destroy();
+        }
+    }
+
+    private static void produceKeyed(EmbeddedKafkaBroker broker, String topic) {
+        Map<String, Object> producerProps = KafkaTestUtils.producerProps(broker);
+        producerProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        producerProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, EventSerializer.class);
+        try (KafkaProducer<String, Event> producer = new KafkaProducer<>(producerProps)) {
+            for (int i = 0; i < SCALING_EVENTS; i++) {
+                Event event = new Event()
+                        .setTopic(TOPIC_LIKE)
+                        .setUserId(i % 1000 + 2)
+                        .setEntityType(ENTITY_TYPE_POST)
+                        .setEntityId(i)
+                        .setEntityUserId(i % 100 + 2)
+                        .setData("postId", i);
+                producer.send(new ProducerRecord<>(topic, EventProducer.eventKey(event), event));
+            }
+            producer.flush();
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.nowcoder.community;
+
+import com.nowcoder.community.dao.EventOutboxMapper;
+import com.nowcoder.community.entity.OutboxEvent;
+import com.nowcoder.community.event.EventMetrics;
+import com.nowcoder.community.event.EventOutboxRelay;
+import com.nowcoder.community.event.EventProducer;
+import com.nowcoder.community.event.EventTransport;
+import com.nowcoder.community.util.CommunityConstant;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+//发件箱中继：不等确认连续发送，在途达到上限时等待；失败时删除已确认的事件，只重新发布失败和未发送的事件；每一轮从发件箱开头读取
+public class EventOutboxRelayTests implements CommunityConstant {
+
+    private final Map<Long, OutboxEvent> outbox = new ConcurrentSkipListMap<>();
+
+    //每次发送的事件id和对应的future
+    private final List<Long> sentIds = new CopyOnWriteArrayList<>();
+    private final List<CompletableFuture<Void>> sentFutures = new CopyOnWriteArrayList<>();
+
+    private volatile boolean autoAck;
+
+    private EventOutboxMapper mapper() {
+        return (EventOutboxMapper) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{EventOutboxMapper.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "toString":
+                            return "EventOutboxMapper";
+                        case "selectOutboxEvents":
+                            List<OutboxEvent> events = new ArrayList<>();
+                            for (OutboxEvent event : outbox.values()) {
+                                if (event.getId() > (Long) args[0] && events.size() < (Integer) args[1]) {
+                                    events.add(event);
+                                }
+                            }
+                            return events;
+                        case "deleteOutboxEvents":
+                            List<Long> ids = (List<Long>) args[0];
+                            ids.forEach(outbox::remove);
+                            return ids.size();
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private EventTransport transport() {
+        return new EventTransport() {
+            @Override
+            public CompletableFuture<?> send(String topic, String key, byte[] payload) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                sentIds.add(Long.parseLong(key));
+                sentFutures.add(future);
+                if (autoAck) {
+                    future.complete(null);
+                }
+                return future;
+            }
+
+            @Override
+            public void flush() {
+            }
+        };
+    }
+
+    private EventOutboxRelay relay(EventOutboxMapper mapper, int batchSize, int maxInFlight) {
+        EventMetrics metrics = new EventMetrics();
+        EventProducer producer = new EventProducer();
+        ReflectionTestUtils.setField(producer, "eventTransport", transport());
+        ReflectionTestUtils.setField(producer, "eventOutboxMapper", mapper);
+        ReflectionTestUtils.setField(producer, "eventMetrics", metrics);
+        ReflectionTestUtils.setField(producer, "maxInFlight", maxInFlight);
+        producer.init();
+
+        EventOutboxRelay relay = new EventOutboxRelay();
+        ReflectionTestUtils.setField(relay, "eventOutboxMapper", mapper);
+        ReflectionTestUtils.setField(relay, "eventProducer", producer);
+        ReflectionTestUtils.setField(relay, "eventMetrics", metrics);
+        ReflectionTestUtils.setField(relay, "batchSize", batchSize);
+        ReflectionTestUtils.setField(relay, "sendTimeoutMillis", 10000L);
+        ReflectionTestUtils.setField(relay, "pollMillis", 20L);
+        return relay;
+    }
+
+    private static OutboxEvent event(long id) {
+        OutboxEvent event = new OutboxEvent();
+        event.setId(id);
+        event.setTopic(TOPIC_COMMENT);
+        event.setEventKey(String.valueOf(id));
+        event.setPayload(new byte[0]);
+        event.setCreateTime(new Date());
+        return event;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testPipelineAndRetry() throws Exception {
+        for (long id = 1; id <= 10; id++) {
+            outbox.put(id, event(id));
+        }
+        EventOutboxRelay relay = relay(mapper(), 3, 5);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            //一批3个，没有任何确认时也继续发送下一批，直到在途达到上限5个
+            Future<?> running = executor.submit(relay::relay);
+            await(() -> sentIds.size() == 5);
+            Thread.sleep(100);
+            Assertions.assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), sentIds);
+            Assertions.assertEquals(10, outbox.size());
+
+            //确认前两个后删除它们，空出的位置立即发送后面的事件
+            sentFutures.get(0).complete(null);
+            sentFutures.get(1).complete(null);
+            await(() -> sentIds.size() == 7);
+            await(() -> outbox.size() == 8);
+            Assertions.assertFalse(outbox.containsKey(1L));
+
+            //第3、5个失败：等在途事件都有结果后删除已确认的4、6、7，中继结束
+            //失败释放的位置可能让中继在发现失败前多发送几个事件，让它们也失败
+            sentFutures.get(2).completeExceptionally(new IllegalStateException("broker不可用"));
+            sentFutures.get(3).complete(null);
+            sentFutures.get(4).completeExceptionally(new IllegalStateException("broker不可用"));
+            sentFutures.get(5).complete(null);
+            sentFutures.get(6).complete(null);
+            while (!running.isDone()) {
+                for (int i = 7; i < sentFutures.size(); i++) {
+                    sentFutures.get(i).completeExceptionally(new IllegalStateException("broker不可用"));
+                }
+                Thread.sleep(10);
+            }
+            running.get();
+            Assertions.assertEquals(Arrays.asList(3L, 5L, 8L, 9L, 10L), new ArrayList<>(outbox.keySet()));
+
+            //下一轮只重新发布失败的和没有发送过的事件
+            autoAck = true;
+            int before = sentIds.size();
+            executor.submit(relay::relay).get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(Arrays.asList(3L, 5L, 8L, 9L, 10L), sentIds.subList(before, sentIds.size()));
+            Assertions.assertTrue(outbox.isEmpty());
+
+            //id较小的事件在更大的id之后才提交：下一轮从发件箱开头读取，仍然会被发布
+            outbox.put(4L, event(4));
+            before = sentIds.size();
+            executor.submit(relay::relay).get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(Arrays.asList(4L), sentIds.subList(before, sentIds.size()));
+            Assertions.assertTrue(outbox.isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
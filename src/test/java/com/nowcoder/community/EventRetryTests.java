@@ -0,0 +1,149 @@
+package com.nowcoder.community;
+
+import com.nowcoder.community.entity.Event;
+import com.nowcoder.community.event.EventCodec;
+import com.nowcoder.community.event.EventDeserializer;
+import com.nowcoder.community.event.EventRetryPublisher;
+import com.nowcoder.community.util.CommunityConstant;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+//处理失败的事件依次经过各级重试主题进入死信主题，再由重放回到原来的主题；无法解析的事件直接进入死信主题
+public class EventRetryTests implements CommunityConstant {
+
+    @Test
+    public void testRetryTiersAndReplay() {
+        EmbeddedKafkaBroker broker = new EmbeddedKafkaBroker(1, false, 1,
+                TOPIC_COMMENT, TOPIC_RETRY_1, TOPIC_RETRY_2, TOPIC_RETRY_3, TOPIC_DEAD_LETTER);
+        broker.afterPropertiesSet();
+        try {
+            KafkaProperties kafkaProperties = new KafkaProperties();
+            kafkaProperties.setBootstrapServers(Collections.singletonList(broker.getBrokersAsString()));
+            Map<String, Object> producerProps = KafkaTestUtils.producerProps(broker);
+            KafkaTemplate<String, byte[]> template = new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(
+                    producerProps, new StringSerializer(), new ByteArraySerializer()));
+
+            EventRetryPublisher publisher = new EventRetryPublisher();
+            ReflectionTestUtils.setField(publisher, "eventKafkaTemplate", template);
+            ReflectionTestUtils.setField(publisher, "kafkaProperties", kafkaProperties);
+            ReflectionTestUtils.setField(publisher, "initialDelayMillis", 100L);
+            ReflectionTestUtils.setField(publisher, "multiplier", 5);
+            ReflectionTestUtils.setField(publisher, "sendTimeoutMillis", 10000L);
+
+            byte[] payload = EventCodec.encode(new Event()
+                    .setTopic(TOPIC_COMMENT)
+                    .setUserId(111)
+                    .setEntityType(ENTITY_TYPE_POST)
+                    .setEntityId(228)
+                    .setEntityUserId(149));
+            ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(TOPIC_COMMENT, 0, 42L, "149", payload);
+
+            String[] expected = {TOPIC_RETRY_1, TOPIC_RETRY_2, TOPIC_RETRY_3, TOPIC_DEAD_LETTER};
+            long[] delays = {100, 500, 2500};
+            for (int i = 0; i < expected.length; i++) {
+                long before = System.currentTimeMillis();
+                publisher.retry(record, record.value(), "EventConsumer", new IllegalStateException("第" + (i + 1) + "次失败"));
+                record = readOne(broker, expected[i]);
+
+                Assertions.assertEquals("149", record.key());
+                Assertions.assertArrayEquals(payload, record.value());
+                Assertions.assertEquals(TOPIC_COMMENT, EventRetryPublisher.originalTopic(record));
+                Assertions.assertEquals(42L, ByteBuffer.wrap(
+                        record.headers().lastHeader(KafkaHeaders.DLT_ORIGINAL_OFFSET).value()).getLong());
+                Assertions.assertEquals("第" + (i + 1) + "次失败", new String(
+                        record.headers().lastHeader(KafkaHeaders.DLT_EXCEPTION_MESSAGE).value(), StandardCharsets.UTF_8));
+                Assertions.assertEquals("EventConsumer", EventRetryPublisher.failedHandler(record));
+                if (i < delays.length) {
+                    Assertions.assertTrue(EventRetryPublisher.dueTime(record) >= before + delays[i]);
+                } else {
+                    Assertions.assertEquals(0, EventRetryPublisher.dueTime(record));
+                }
+            }
+
+            Assertions.assertEquals(1, publisher.countDeadLetters());
+            Assertions.assertEquals(1, publisher.replayDeadLetters(100));
+            Assertions.assertEquals(0, publisher.countDeadLetters());
+            Assertions.assertEquals(0, publisher.replayDeadLetters(100));
+
+            ConsumerRecord<String, byte[]> replayed = readOne(broker, TOPIC_COMMENT);
+            Assertions.assertEquals("149", replayed.key());
+            Assertions.assertArrayEquals(payload, replayed.value());
+            Assertions.assertNull(replayed.headers().lastHeader(EventRetryPublisher.HEADER_ATTEMPT));
+        } finally {
+            broker.destroy();
+        }
+    }
+
+    //无法解析的记录不经过重试，以原始内容直接进入死信主题，原因写在消息头中
+    @Test
+    public void testUndecodableToDeadLetter() {
+        EmbeddedKafkaBroker broker = new EmbeddedKafkaBroker(1, false, 1, TOPIC_DEAD_LETTER);
+        broker.afterPropertiesSet();
+        try {
+            KafkaProperties kafkaProperties = new KafkaProperties();
+            kafkaProperties.setBootstrapServers(Collections.singletonList(broker.getBrokersAsString()));
+            KafkaTemplate<String, byte[]> template = new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(
+                    KafkaTestUtils.producerProps(broker), new StringSerializer(), new ByteArraySerializer()));
+            EventRetryPublisher publisher = new EventRetryPublisher();
+            ReflectionTestUtils.setField(publisher, "eventKafkaTemplate", template);
+            ReflectionTestUtils.setField(publisher, "kafkaProperties", kafkaProperties);
+            ReflectionTestUtils.setField(publisher, "sendTimeoutMillis", 10000L);
+
+            //和消费时一样由ErrorHandlingDeserializer解析
+            byte[] payload = {9, 1, 2, 3};
+            Headers headers = new RecordHeaders();
+            Event event = new ErrorHandlingDeserializer<>(new EventDeserializer()).deserialize(TOPIC_COMMENT, headers, payload);
+            Assertions.assertNull(event);
+            ConsumerRecord<String, Event> record = new ConsumerRecord<>(TOPIC_COMMENT, 0, 7L, 0L, TimestampType.CREATE_TIME,
+                    0L, 0, payload.length, "149", null, headers);
+
+            Assertions.assertFalse(publisher.deadLetterIfUndecodable(new ConsumerRecord<>(TOPIC_COMMENT, 0, 8L, "149", event), "EventConsumer"));
+            Assertions.assertTrue(publisher.deadLetterIfUndecodable(record, "EventConsumer"));
+
+            ConsumerRecord<String, byte[]> dead = readOne(broker, TOPIC_DEAD_LETTER);
+            Assertions.assertArrayEquals(payload, dead.value());
+            Assertions.assertEquals(TOPIC_COMMENT, EventRetryPublisher.originalTopic(dead));
+            Assertions.assertEquals(7L, ByteBuffer.wrap(
+                    dead.headers().lastHeader(KafkaHeaders.DLT_ORIGINAL_OFFSET).value()).getLong());
+            Assertions.assertTrue(new String(dead.headers().lastHeader(KafkaHeaders.DLT_EXCEPTION_MESSAGE).value(),
+                    StandardCharsets.UTF_8).contains("不支持的事件编码版本"));
+        } finally {
+            broker.destroy();
+        }
+    }
+
+    private static ConsumerRecord<String, byte[]> readOne(EmbeddedKafkaBroker broker, String topic) {
+        Map<String, Object> props = KafkaTestUtils.consumerProps("read-" + topic, "false", broker);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        try (Consumer<String, byte[]> consumer = new DefaultKafkaConsumerFactory<>(
+                props, new StringDeserializer(), new ByteArrayDeserializer()).createConsumer()) {
+            broker.consumeFromAnEmbeddedTopic(consumer, topic);
+            return KafkaTestUtils.getSingleRecord(consumer, topic);
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.nowcoder.community;
+
+import com.nowcoder.community.entity.Event;
+import com.nowcoder.community.event.EventCodec;
+import com.nowcoder.community.event.EventHandler;
+import com.nowcoder.community.event.EventRingBuffer;
+import com.nowcoder.community.util.CommunityConstant;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//进程内事件总线的正确性；main方法测试单写多读时每秒能发布和处理的事件数
+public class EventRingBufferTests implements CommunityConstant {
+
+    private static final int EVENTS = 10_000_000;
+
+    private static byte[] payload(String topic, int entityId) {
+        return EventCodec.encode(new Event()
+                .setTopic(topic)
+                .setUserId(111)
+                .setEntityType(ENTITY_TYPE_POST)
+                .setEntityId(entityId)
+                .setEntityUserId(149));
+    }
+
+    @Test
+    public void testDeliverInOrder() throws Exception {
+        RecordingHandler notices = new RecordingHandler(TOPIC_COMMENT, TOPIC_LIKE);
+        RecordingHandler posts = new RecordingHandler(TOPIC_PUBLISH, TOPIC_COMMENT);
+        EventRingBuffer ringBuffer = new EventRingBuffer(64, 10, 3, 10, 2, Arrays.asList(notices, posts));
+        ringBuffer.start();
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                String topic = i % 2 == 0 ? TOPIC_COMMENT : TOPIC_LIKE;
+                CompletableFuture<Void> future;
+                while ((future = ringBuffer.publish(topic, payload(topic, i))).isCompletedExceptionally()) {
+                    Thread.sleep(1);
+                }
+                futures.add(future);
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        } finally {
+            ringBuffer.stop();
+        }
+        Assertions.assertEquals(1000, notices.entityIds.size());
+        Assertions.assertEquals(500, posts.entityIds.size());
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertEquals(i, notices.entityIds.get(i));
+        }
+    }
+
+    @Test
+    public void testNoSubscriber() {
+        EventRingBuffer ringBuffer = new EventRingBuffer(2, 1, 3, 10, 2,
+                Collections.singletonList(new RecordingHandler(TOPIC_COMMENT)));
+        Assertions.assertTrue(ringBuffer.publish(TOPIC_FOLLOW, payload(TOPIC_FOLLOW, 1)).isDone());
+    }
+
+    @Test
+    public void testRejectWhenFull() {
+        //不启动消费线程，缓冲区写满后拒绝
+        EventRingBuffer ringBuffer = new EventRingBuffer(4, 1, 3, 10, 2,
+                Collections.singletonList(new RecordingHandler(TOPIC_COMMENT)));
+        for (int i = 0; i < ringBuffer.getCapacity(); i++) {
+            Assertions.assertFalse(ringBuffer.publish(TOPIC_COMMENT, payload(TOPIC_COMMENT, i)).isDone());
+        }
+        CompletableFuture<Void> rejected = ringBuffer.publish(TOPIC_COMMENT, payload(TOPIC_COMMENT, 4));
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, rejected::get);
+        Assertions.assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void testHandlerFailure() throws Exception {
+        //实体id为2的事件总是处理失败，和它同一批的事件逐个重试后处理成功
+        AtomicLong poisonAttempts = new AtomicLong();
+        RecordingHandler failing = new RecordingHandler(TOPIC_COMMENT) {
+            @Override
+            public void handleEvents(List<Event> events) {
+                for (Event event : events) {
+                    if (event.getEntityId() == 2) {
+                        poisonAttempts.incrementAndGet();
+                        throw new IllegalStateException("写入失败");
+                    }
+                }
+                super.handleEvents(events);
+            }
+        };
+        RecordingHandler other = new RecordingHandler(TOPIC_COMMENT);
+        EventRingBuffer ringBuffer = new EventRingBuffer(8, 10, 3, 10, 2, Arrays.asList(failing, other));
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            futures.add(ringBuffer.publish(TOPIC_COMMENT, payload(TOPIC_COMMENT, i)));
+        }
+        ringBuffer.start();
+        try {
+            //重试用尽后跳过，事件以成功确认，从发件箱中删除，后面的事件照常处理
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals(Arrays.asList(1, 3), failing.entityIds);
+            Assertions.assertEquals(Arrays.asList(1, 2, 3), other.entityIds);
+            //整批处理1次，逐个处理3次
+            Assertions.assertEquals(4, poisonAttempts.get());
+
+            ringBuffer.publish(TOPIC_COMMENT, payload(TOPIC_COMMENT, 4)).get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals(Arrays.asList(1, 3, 4), failing.entityIds);
+        } finally {
+            ringBuffer.stop();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        byte[][] payloads = {
+                payload(TOPIC_COMMENT, 228), payload(TOPIC_LIKE, 228), payload(TOPIC_FOLLOW, 149)};
+        String[] topics = {TOPIC_COMMENT, TOPIC_LIKE, TOPIC_FOLLOW};
+
+        for (int round = 0; round < 3; round++) {
+            CountingHandler notices = new CountingHandler(TOPIC_COMMENT, TOPIC_LIKE, TOPIC_FOLLOW);
+            CountingHandler likes = new CountingHandler(TOPIC_LIKE);
+            EventRingBuffer ringBuffer = new EventRingBuffer(16384, 500, 3, 10, 2, Arrays.asList(notices, likes));
+            ringBuffer.start();
+
+            long rejected = 0;
+            CompletableFuture<Void> last = null;
+            long start = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) {
+                int t = i % 3;
+                while ((last = ringBuffer.publish(topics[t], payloads[t])).isCompletedExceptionally()) {
+                    rejected++;
+                    Thread.onSpinWait();
+                }
+            }
+            last.get(60, TimeUnit.SECONDS);
+            long cost = System.nanoTime() - start;
+            ringBuffer.stop();
+
+            System.out.println(String.format("第%d轮: 发布%d个事件, 耗时%dms, 吞吐%.0f事件/秒, 缓冲区满重试%d次, 处理器收到%d/%d个",
+                    round + 1, EVENTS, TimeUnit.NANOSECONDS.toMillis(cost), EVENTS * 1e9 / cost, rejected,
+                    notices.count.get(), likes.count.get()));
+        }
+    }
+
+    private static class RecordingHandler implements EventHandler {
+
+        private final String[] topics;
+        final List<Integer> entityIds = Collections.synchronizedList(new ArrayList<>());
+
+        RecordingHandler(String... topics) {
+            this.topics = topics;
+        }
+
+        @Override
+        public String[] getTopics() {
+            return topics;
+        }
+
+        @Override
+        public void handleEvents(List<Event> events) {
+            for (Event event : events) {
+                entityIds.add(event.getEntityId());
+            }
+        }
+    }
+
+    private static class CountingHandler implements EventHandler {
+
+        private final String[] topics;
+        final AtomicLong count = new AtomicLong();
+
+        CountingHandler(String... topics) {
+            this.topics = topics;
+        }
+
+        @Override
+        public String[] getTopics() {
+            return topics;
+        }
+
+        @Override
+        public void handleEvents(List<Event> events) {
+            count.addAndGet(events.size());
+        }
+    }
+
+}
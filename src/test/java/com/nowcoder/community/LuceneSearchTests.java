@@ -0,0 +1,100 @@
+package com.nowcoder.community;
+
+import com.nowcoder.community.entity.DiscussPost;
+import com.nowcoder.community.service.LuceneSearchService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.Page;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+
+//内嵌Lucene搜索：中文分词、排序、高亮、分页、删除，以及重新打开后索引仍在
+public class LuceneSearchTests {
+
+    private static DiscussPost post(int id, String title, String content, int type, double score, long createTime) {
+        DiscussPost post = new DiscussPost();
+        post.setId(id);
+        post.setUserId(149);
+        post.setTitle(title);
+        post.setContent(content);
+        post.setType(type);
+        post.setScore(score);
+        post.setCreateTime(new Date(createTime));
+        return post;
+    }
+
+    private static LuceneSearchService open(Path dir) throws Exception {
+        LuceneSearchService service = new LuceneSearchService();
+        ReflectionTestUtils.setField(service, "path", dir.toString());
+        service.init();
+        return service;
+    }
+
+    @Test
+    public void testSearch(@TempDir Path dir) throws Exception {
+        LuceneSearchService service = open(dir);
+        try {
+            service.saveDiscussPosts(Arrays.asList(
+                    post(1, "互联网求职暖春计划", "今年的校招开始了", 0, 10, 1000),
+                    post(2, "寒冬中的互联网", "行业调整", 0, 20, 2000),
+                    post(3, "置顶：社区规则", "请勿在互联网上传播谣言", 1, 0, 500),
+                    post(4, "周末去爬山", "天气很好", 0, 100, 3000),
+                    post(5, "互联网大厂面经", "一面二面", 0, 20, 4000)));
+            service.saveDiscussPost(post(6, "互联网公司的加班", "996", 0, 5, 5000));
+
+            Page<DiscussPost> page = service.searchDiscussPost("互联网", 0, 10);
+            Assertions.assertEquals(5, page.getTotalElements());
+            //置顶在前，然后按分数、创建时间倒序
+            int[] expected = {3, 5, 2, 1, 6};
+            for (int i = 0; i < expected.length; i++) {
+                Assertions.assertEquals(expected[i], page.getContent().get(i).getId());
+            }
+            DiscussPost top = page.getContent().get(0);
+            Assertions.assertEquals("置顶：社区规则", top.getTitle());
+            //重叠的二元组合并成一个高亮片段
+            Assertions.assertEquals("请勿在<span style='color:red'>互联网</span>上传播谣言",
+                    top.getContent());
+            Assertions.assertTrue(page.getContent().get(1).getTitle().contains("<span style='color:red'>"));
+            Assertions.assertEquals(149, top.getUserId());
+            Assertions.assertEquals(500, top.getCreateTime().getTime());
+
+            //第二页
+            page = service.searchDiscussPost("互联网", 1, 2);
+            Assertions.assertEquals(5, page.getTotalElements());
+            Assertions.assertEquals(2, page.getContent().get(0).getId());
+            Assertions.assertEquals(1, page.getContent().get(1).getId());
+
+            //更新分数后顺序改变，删除后搜不到
+            service.saveDiscussPost(post(6, "互联网公司的加班", "996", 0, 50, 5000));
+            service.deleteDiscussPost(5);
+            page = service.searchDiscussPost("互联网", 0, 10);
+            Assertions.assertEquals(4, page.getTotalElements());
+            Assertions.assertEquals(6, page.getContent().get(1).getId());
+
+            //查询语法按普通文本处理
+            Assertions.assertEquals(0, service.searchDiscussPost("AND (", 0, 10).getTotalElements());
+            Assertions.assertEquals(1, service.searchDiscussPost("爬山", 0, 10).getTotalElements());
+        } finally {
+            service.destroy();
+        }
+    }
+
+    @Test
+    public void testReopen(@TempDir Path dir) throws Exception {
+        LuceneSearchService service = open(dir);
+        service.saveDiscussPost(post(1, "互联网求职暖春计划", "今年的校招开始了", 0, 10, 1000));
+        service.destroy();
+
+        service = open(dir);
+        try {
+            Assertions.assertEquals(1, service.searchDiscussPost("校招", 0, 10).getTotalElements());
+        } finally {
+            service.destroy();
+        }
+    }
+
+}
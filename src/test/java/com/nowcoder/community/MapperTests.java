@@ -1,5 +1,6 @@
 package com.nowcoder.community;
 
+import com.nowcoder.community.dao.ConversationMapper;
 import com.nowcoder.community.dao.DiscussPostMapper;
 import com.nowcoder.community.dao.LoginTicketMapper;
 import com.nowcoder.community.dao.MessageMapper;
@@ -31,6 +32,9 @@ public class MapperTests {
     @Autowired
     private MessageMapper messageMapper;
 
+    @Autowired
+    private ConversationMapper conversationMapper;
+
     @Test
     public void testSelectUser(){
         User user = userMapper.selectById(146);
@@ -127,4 +131,15 @@ public class MapperTests {
         System.out.println(count);
     }
 
+    @Test
+    public void testSelectConversations(){
+        List<Message> list = conversationMapper.selectConversations(111, 0, 20);
+        for(Message message : list){
+            System.out.println(message);
+        }
+
+        int count = conversationMapper.selectConversationCount(111);
+        System.out.println(count);
+    }
+
 }
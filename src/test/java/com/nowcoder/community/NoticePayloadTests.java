@@ -0,0 +1,155 @@
+package com.nowcoder.community;
+
+import com.alibaba.fastjson.JSONObject;
+import com.nowcoder.community.entity.Event;
+import com.nowcoder.community.entity.Message;
+import com.nowcoder.community.entity.NoticePayload;
+import com.nowcoder.community.service.MessageService;
+import com.nowcoder.community.util.CommunityConstant;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.util.HtmlUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//通知内容：结构化字段和旧的转义JSON解码出相同的内容；main方法对比两种解码方式的耗时
+public class NoticePayloadTests implements CommunityConstant {
+
+    private static final int WARMUP = 200_000;
+    private static final int ITERATIONS = 2_000_000;
+
+    //迁移前的通知：事件消费者把userId、entityType、entityId和data中的字段写成转义的JSON
+    private static Message legacyNotice(Event event) {
+        Map<String, Object> content = new HashMap<>();
+        content.put("userId", event.getUserId());
+        content.put("entityType", event.getEntityType());
+        content.put("entityId", event.getEntityId());
+        content.putAll(event.getData());
+        Message notice = new Message();
+        notice.setFromId(SYSTEM_USER_ID);
+        notice.setToId(event.getEntityUserId());
+        notice.setConversationId(event.getTopic());
+        notice.setContent(HtmlUtils.htmlEscape(JSONObject.toJSONString(content)));
+        return notice;
+    }
+
+    //结构化字段和旧格式解码出的内容都和JSON中的一致
+    private static void assertPayload(Message legacy, NoticePayload payload) {
+        JSONObject data = JSONObject.parseObject(HtmlUtils.htmlUnescape(legacy.getContent()));
+        Assertions.assertEquals(data.getIntValue("userId"), payload.getActorId());
+        Assertions.assertEquals(data.getIntValue("entityType"), payload.getEntityType());
+        Assertions.assertEquals(data.getIntValue("entityId"), payload.getEntityId());
+        Assertions.assertEquals(data.getIntValue("postId"), payload.getPostId());
+    }
+
+    private static void assertSamePayload(Event event) {
+        Message legacy = legacyNotice(event);
+        assertPayload(legacy, NoticePayload.of(legacy));
+        assertPayload(legacy, NoticePayload.of(new MessageService().createNotice(event)));
+    }
+
+    @Test
+    public void testCommentNotice() {
+        assertSamePayload(new Event().setTopic(TOPIC_COMMENT).setUserId(111)
+                .setEntityType(ENTITY_TYPE_COMMENT).setEntityId(12).setEntityUserId(149).setData("postId", 228));
+    }
+
+    @Test
+    public void testLikeNotice() {
+        assertSamePayload(new Event().setTopic(TOPIC_LIKE).setUserId(112)
+                .setEntityType(ENTITY_TYPE_POST).setEntityId(228).setEntityUserId(149).setData("postId", 228));
+    }
+
+    //关注通知没有postId，两种方式都是0
+    @Test
+    public void testFollowNotice() {
+        Event event = new Event().setTopic(TOPIC_FOLLOW).setUserId(113)
+                .setEntityType(ENTITY_TYPE_USER).setEntityId(149).setEntityUserId(149);
+        assertSamePayload(event);
+        Assertions.assertEquals(0, NoticePayload.of(new MessageService().createNotice(event)).getPostId());
+    }
+
+    //聚合通知：actorId是最近一次触发的用户，内容和最近一次事件的JSON一致
+    @Test
+    public void testAggregatedNotice() {
+        Message aggregate = null;
+        Event latest = null;
+        for (int userId = 111; userId <= 113; userId++) {
+            latest = new Event().setTopic(TOPIC_LIKE).setUserId(userId)
+                    .setEntityType(ENTITY_TYPE_POST).setEntityId(228).setEntityUserId(149).setData("postId", 228);
+            if (aggregate == null) {
+                aggregate = new MessageService().createNotice(latest);
+            } else {
+                //updateAggregateNotice: 最新的触发用户、计数加1、最近的用户放在最前面
+                aggregate.setActorId(userId);
+                aggregate.setActorCount(aggregate.getActorCount() + 1);
+                aggregate.setRecentActors(userId + "," + aggregate.getRecentActors());
+            }
+        }
+        assertPayload(legacyNotice(latest), NoticePayload.of(aggregate));
+        Assertions.assertEquals(3, aggregate.getActorCount());
+        Assertions.assertEquals("113,112,111", aggregate.getRecentActors());
+    }
+
+    public static void main(String[] args) {
+        Map<String, Object> content = new HashMap<>();
+        content.put("userId", 111);
+        content.put("entityType", 1);
+        content.put("entityId", 228);
+        content.put("postId", 228);
+
+        Message legacy = new Message();
+        legacy.setContent(HtmlUtils.htmlEscape(JSONObject.toJSONString(content)));
+
+        Message notice = new Message();
+        notice.setActorId(111);
+        notice.setEntityType(1);
+        notice.setEntityId(228);
+        notice.setPostId(228);
+
+        System.out.println("旧: " + decodeLegacy(legacy) + ", 新: " + decodeStructured(notice));
+
+        for (int round = 0; round < 3; round++) {
+            long legacyNanos = run(() -> decodeLegacy(legacy), WARMUP, ITERATIONS);
+            long structuredNanos = run(() -> decodeStructured(notice), WARMUP, ITERATIONS);
+            System.out.println(String.format("第%d轮: 转义JSON %.1f ns/op, 结构化字段 %.1f ns/op",
+                    round + 1, legacyNanos / (double) ITERATIONS, structuredNanos / (double) ITERATIONS));
+        }
+    }
+
+    //MessageController原来的解析方式，读取全部4个字段
+    private static int decodeLegacy(Message message) {
+        String text = HtmlUtils.htmlUnescape(message.getContent());
+        Map<String, Object> data = JSONObject.parseObject(text, HashMap.class);
+        return (Integer) data.get("userId") + (Integer) data.get("entityType")
+                + (Integer) data.get("entityId") + (Integer) data.get("postId");
+    }
+
+    //读取和旧方式相同的4个字段
+    private static int decodeStructured(Message message) {
+        NoticePayload payload = NoticePayload.of(message);
+        return payload.getActorId() + payload.getEntityType() + payload.getEntityId() + payload.getPostId();
+    }
+
+    private static long run(Decoder decoder, int warmup, int iterations) {
+        long sink = 0;
+        for (int i = 0; i < warmup; i++) {
+            sink += decoder.decode();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += decoder.decode();
+        }
+        long cost = System.nanoTime() - start;
+        if (sink == 42) {
+            System.out.println(sink);
+        }
+        return cost;
+    }
+
+    private interface Decoder {
+        int decode();
+    }
+
+}
@@ -1,5 +1,9 @@
 package com.nowcoder.community;
 
+import com.nowcoder.community.entity.Event;
+import com.nowcoder.community.event.EventDeduplicator;
+import com.nowcoder.community.util.CommunityUtil;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -10,6 +14,8 @@ import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.test.context.ContextConfiguration;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 @SpringBootTest
@@ -19,6 +25,9 @@ public class RedisTests {
     @Autowired
     private RedisTemplate redisTemplate;
 
+    @Autowired
+    private EventDeduplicator eventDeduplicator;
+
     @Test
     public void testStrings() {
         String redisKey = "test:count";
@@ -127,4 +136,31 @@ public class RedisTests {
         System.out.println(obj);
     }
 
+    //事件去重：一批500个事件一次脚本调用，重复的事件被过滤，统计每批的耗时
+    @Test
+    public void testEventDedup() {
+        String handler = "test";
+        redisTemplate.delete("event:dedup:" + handler);
+
+        long cost = 0;
+        int rounds = 100;
+        for (int round = 0; round < rounds; round++) {
+            List<Event> events = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                events.add(new Event().setId(CommunityUtil.generateUUID()));
+            }
+            long start = System.nanoTime();
+            List<Event> fresh = eventDeduplicator.filterSeen(handler, events);
+            cost += System.nanoTime() - start;
+            Assertions.assertEquals(500, fresh.size());
+            //处理成功前重新投递，不被当作重复
+            Assertions.assertEquals(500, eventDeduplicator.filterSeen(handler, events).size());
+            //处理成功后重复消费
+            eventDeduplicator.markSeen(handler, events.subList(0, 490));
+            Assertions.assertEquals(10, eventDeduplicator.filterSeen(handler, events).size());
+        }
+        System.out.println(String.format("每批500个事件去重平均耗时: %.3fms", cost / 1e6 / rounds));
+        redisTemplate.delete("event:dedup:" + handler);
+    }
+
 }
@@ -0,0 +1,254 @@
+package com.nowcoder.community;
+
+import com.nowcoder.community.dao.DiscussPostMapper;
+import com.nowcoder.community.entity.DiscussPost;
+import com.nowcoder.community.entity.Event;
+import com.nowcoder.community.event.EventRetryPublisher;
+import com.nowcoder.community.event.SearchIndexMetrics;
+import com.nowcoder.community.event.SearchIndexer;
+import com.nowcoder.community.service.LuceneSearchService;
+import com.nowcoder.community.util.CommunityConstant;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+//增量索引：窗口内同一个帖子的多次更新合并为一次写入，写入后才返回，写入失败时抛出异常由重试处理
+public class SearchIndexerTests implements CommunityConstant {
+
+    private final Map<Integer, DiscussPost> posts = new ConcurrentHashMap<>();
+
+    //每次批量查询的帖子id
+    private final List<List<Integer>> queries = new CopyOnWriteArrayList<>();
+
+    private volatile boolean mysqlDown;
+
+    //转发到共用重试主题的记录
+    private final List<ConsumerRecord<String, ?>> retried = new CopyOnWriteArrayList<>();
+
+    private DiscussPostMapper mapper() {
+        return (DiscussPostMapper) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{DiscussPostMapper.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("toString")) {
+                        return "DiscussPostMapper";
+                    }
+                    if (!method.getName().equals("selectDiscussPostsByIds")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    if (mysqlDown) {
+                        throw new IllegalStateException("无法连接MySQL");
+                    }
+                    List<Integer> ids = new ArrayList<>((List<Integer>) args[0]);
+                    queries.add(ids);
+                    List<DiscussPost> result = new ArrayList<>();
+                    for (Integer id : ids) {
+                        if (posts.containsKey(id)) {
+                            result.add(posts.get(id));
+                        }
+                    }
+                    return result;
+                });
+    }
+
+    private void savePost(int id, String title, double score, int status) {
+        DiscussPost post = new DiscussPost();
+        post.setId(id);
+        post.setUserId(149);
+        post.setTitle(title);
+        post.setContent("内容" + id);
+        post.setScore(score);
+        post.setStatus(status);
+        post.setCreateTime(new Date(id * 1000L));
+        posts.put(id, post);
+    }
+
+    private static Event publish(int postId) {
+        return new Event().setTopic(TOPIC_PUBLISH).setUserId(149).setEntityType(ENTITY_TYPE_POST).setEntityId(postId);
+    }
+
+    private static Event comment(int postId, int commentId) {
+        return new Event().setTopic(TOPIC_COMMENT).setUserId(111)
+                .setEntityType(ENTITY_TYPE_COMMENT).setEntityId(commentId).setData("postId", postId);
+    }
+
+    private static Event score(int postId) {
+        return new Event().setTopic(TOPIC_SCORE).setEntityType(ENTITY_TYPE_POST).setEntityId(postId);
+    }
+
+    private SearchIndexer indexer(LuceneSearchService searchService, SearchIndexMetrics metrics,
+                                  long flushMillis, int batchSize) {
+        SearchIndexer indexer = new SearchIndexer();
+        ReflectionTestUtils.setField(indexer, "discussPostMapper", mapper());
+        ReflectionTestUtils.setField(indexer, "searchService", searchService);
+        ReflectionTestUtils.setField(indexer, "searchIndexMetrics", metrics);
+        ReflectionTestUtils.setField(indexer, "flushMillis", flushMillis);
+        ReflectionTestUtils.setField(indexer, "batchSize", batchSize);
+        ReflectionTestUtils.setField(indexer, "waitMillis", 10000L);
+        ReflectionTestUtils.setField(indexer, "eventRetryPublisher", new EventRetryPublisher() {
+            @Override
+            public void retry(ConsumerRecord<String, ?> record, byte[] payload, String handler, Exception e) {
+                retried.add(record);
+            }
+        });
+        ReflectionTestUtils.setField(indexer, "backend", "lucene");
+        ReflectionTestUtils.setField(indexer, "localRetryAttempts", 3);
+        ReflectionTestUtils.setField(indexer, "localRetryBackoffMillis", 50L);
+        indexer.init();
+        return indexer;
+    }
+
+    private static LuceneSearchService searchService(Path dir) throws Exception {
+        LuceneSearchService service = new LuceneSearchService();
+        ReflectionTestUtils.setField(service, "path", dir.toString());
+        service.init();
+        return service;
+    }
+
+    @Test
+    public void testCoalesce(@TempDir Path dir) throws Exception {
+        LuceneSearchService searchService = searchService(dir);
+        SearchIndexMetrics metrics = new SearchIndexMetrics();
+        SearchIndexer indexer = indexer(searchService, metrics, 500, 500);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            savePost(1, "互联网求职", 10, 0);
+            savePost(2, "互联网寒冬", 20, 0);
+            savePost(3, "互联网面经", 30, 2);
+
+            //4个消费线程同时收到同一批帖子的发帖、评论、分数事件
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> indexer.handleEvents(Arrays.asList(
+                        publish(1), comment(1, thread), score(1), publish(2), comment(2, 10 + thread), publish(3)))));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+
+            //返回时已经可以搜到，3个帖子只查询、写入一次；拉黑的帖子不在索引中
+            Assertions.assertEquals(1, queries.size());
+            Assertions.assertEquals(3, queries.get(0).size());
+            Assertions.assertEquals(2, searchService.searchDiscussPost("互联网", 0, 10).getTotalElements());
+            Assertions.assertEquals(2, searchService.searchDiscussPost("互联网", 0, 10).getContent().get(0).getId());
+
+            //分数变化后重新写入，排序随之改变
+            savePost(1, "互联网求职", 50, 0);
+            indexer.handleEvents(Collections.singletonList(score(1)));
+            Assertions.assertEquals(1, searchService.searchDiscussPost("互联网", 0, 10).getContent().get(0).getId());
+
+            //和帖子无关的事件不等待写入：没有待写入的帖子，也没有触发查询
+            indexer.handleEvents(Collections.singletonList(new Event().setTopic(TOPIC_COMMENT)
+                    .setEntityType(ENTITY_TYPE_COMMENT).setEntityId(5)));
+            Assertions.assertEquals(0, indexer.getPendingCount());
+            Assertions.assertEquals(2, queries.size());
+
+            metrics.report();
+            Map<String, Object> total = (Map<String, Object>) metrics.snapshot().get("total");
+            Assertions.assertEquals(26L, total.get("events"));
+            Assertions.assertEquals(4L, total.get("posts"));
+            Assertions.assertEquals(2L, total.get("batches"));
+            Map<String, Object> period = (Map<String, Object>) metrics.snapshot().get("lastPeriod");
+            Assertions.assertEquals(3L, period.get("maxBatchSize"));
+            Assertions.assertTrue((Long) period.get("maxLagMillis") >= 0);
+        } finally {
+            executor.shutdownNow();
+            indexer.destroy();
+            searchService.destroy();
+        }
+    }
+
+    @Test
+    public void testFlushWhenBatchFull(@TempDir Path dir) throws Exception {
+        LuceneSearchService searchService = searchService(dir);
+        SearchIndexer indexer = indexer(searchService, new SearchIndexMetrics(), 60000, 2);
+        try {
+            savePost(1, "互联网求职", 10, 0);
+            savePost(2, "互联网寒冬", 20, 0);
+            //窗口60秒、等待10秒：没有立即写入时会等待超时抛出异常
+            indexer.handleEvents(Arrays.asList(publish(1), publish(2)));
+            Assertions.assertEquals(1, queries.size());
+            Assertions.assertEquals(0, indexer.getPendingCount());
+            Assertions.assertEquals(2, searchService.searchDiscussPost("互联网", 0, 10).getTotalElements());
+        } finally {
+            indexer.destroy();
+            searchService.destroy();
+        }
+    }
+
+    @Test
+    public void testFailure(@TempDir Path dir) throws Exception {
+        LuceneSearchService searchService = searchService(dir);
+        SearchIndexMetrics metrics = new SearchIndexMetrics();
+        SearchIndexer indexer = indexer(searchService, metrics, 100, 500);
+        try {
+            savePost(1, "互联网求职", 10, 0);
+            mysqlDown = true;
+            Assertions.assertThrows(IllegalStateException.class,
+                    () -> indexer.handleEvents(Collections.singletonList(publish(1))));
+            Assertions.assertEquals(0, indexer.getPendingCount());
+            Assertions.assertEquals(1L, ((Map<String, Object>) metrics.snapshot().get("total")).get("failed"));
+
+            //重试时写入成功
+            mysqlDown = false;
+            indexer.handleEvents(Collections.singletonList(publish(1)));
+            Assertions.assertEquals(1, searchService.searchDiscussPost("求职", 0, 10).getTotalElements());
+        } finally {
+            indexer.destroy();
+            searchService.destroy();
+        }
+    }
+
+    @Test
+    public void testLocalRetry(@TempDir Path dir) throws Exception {
+        LuceneSearchService searchService = searchService(dir);
+        SearchIndexMetrics metrics = new SearchIndexMetrics();
+        SearchIndexer indexer = indexer(searchService, metrics, 20, 500);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            savePost(1, "互联网求职", 10, 0);
+            List<ConsumerRecord<String, Event>> records = Collections.singletonList(
+                    new ConsumerRecord<>(TOPIC_PUBLISH, 0, 0L, "149", publish(1)));
+
+            //lucene的索引在本节点重试，第一次失败后恢复，不转发到重试主题
+            mysqlDown = true;
+            Future<?> running = executor.submit(() -> indexer.handleIndexEvents(records));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!Long.valueOf(1L).equals(((Map<String, Object>) metrics.snapshot().get("total")).get("failed"))) {
+                Assertions.assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+                Thread.sleep(5);
+            }
+            mysqlDown = false;
+            running.get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals(1, searchService.searchDiscussPost("求职", 0, 10).getTotalElements());
+            Assertions.assertTrue(retried.isEmpty());
+
+            //重试用尽后跳过，仍然不转发
+            mysqlDown = true;
+            executor.submit(() -> indexer.handleIndexEvents(records)).get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals(5L, ((Map<String, Object>) metrics.snapshot().get("total")).get("failed"));
+            Assertions.assertTrue(retried.isEmpty());
+        } finally {
+            executor.shutdownNow();
+            indexer.destroy();
+            searchService.destroy();
+        }
+    }
+
+}